@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * Gradient-style adaptive concurrency limit, fed by the request latency {@link OTInstrumentedHandler} measures.
+ * Must be wrapped by (and registered as a {@link OTInstrumentedHandler.RequestListener} on) an
+ * {@link OTInstrumentedHandler}; {@link JettyServerMetricsConfiguration} does this when
+ * "ot.httpserver.adaptive-limit.enabled" is set.
+ *
+ * <p>
+ * Latency is averaged over short windows. At the end of each window the limit is multiplied by
+ * {@code min(1, tolerance * minLatency / windowLatency)}, so it shrinks once latency rises meaningfully above
+ * the observed minimum, and is given {@code sqrt(limit)} of headroom so it can grow while latency is healthy.
+ * It only grows if we actually came close to using it, and changes are smoothed. The minimum is re-probed
+ * periodically so that it can follow a service that has genuinely got slower.
+ *
+ * <p>
+ * New requests over the limit get a fast 503. Health and ready checks are never rejected.
+ */
+public class AdaptiveConcurrencyLimitHandler extends HandlerWrapper implements OTInstrumentedHandler.RequestListener {
+    private static final String PERMIT_ATTRIBUTE = AdaptiveConcurrencyLimitHandler.class.getName() + ".permit";
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int MIN_WINDOW_SAMPLES = 10;
+    private static final int MIN_LATENCY_RESET_WINDOWS = 60;
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+
+    private final MetricRegistry metricRegistry;
+    private final String prefix;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private final AtomicInteger windowPeakInflight = new AtomicInteger();
+    private final LongAdder windowLatencySum = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final AtomicLong windowEnd;
+
+    // Only written by the thread that wins windowEnd
+    private volatile double limit;
+    private volatile double minLatency;
+    private int windowsSinceReset;
+
+    private Meter rejected;
+
+    /**
+     * Create an adaptive concurrency limiter.
+     *
+     * @param registry the registry for the metrics
+     * @param prefix the prefix to use for the metrics names
+     * @param initialLimit the limit to start with
+     * @param minLimit the limit never drops below this
+     * @param maxLimit the limit never rises above this
+     * @param tolerance how many times the minimum latency we accept before shrinking the limit; at least 1
+     */
+    public AdaptiveConcurrencyLimitHandler(MetricRegistry registry, String prefix,
+                                           int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        Preconditions.checkArgument(minLimit > 0 && minLimit <= initialLimit && initialLimit <= maxLimit,
+                "need 0 < min-limit <= initial-limit <= max-limit, got %s, %s, %s", minLimit, initialLimit, maxLimit);
+        Preconditions.checkArgument(tolerance >= 1, "tolerance %s must be at least 1", tolerance);
+        this.metricRegistry = registry;
+        this.prefix = name(prefix, "adaptive-limit");
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.windowEnd = new AtomicLong(System.nanoTime() + WINDOW_NANOS);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        this.rejected = metricRegistry.meter(name(prefix, "rejected"));
+        metricRegistry.gauge(name(prefix, "limit"), () -> (Gauge<Integer>) this::getLimit);
+        metricRegistry.gauge(name(prefix, "inflight"), () -> (Gauge<Integer>) inflight::get);
+        metricRegistry.gauge(name(prefix, "min-latency-ms"), () -> (Gauge<Double>) () -> minLatency);
+    }
+
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response) throws IOException, ServletException {
+        if (baseRequest.getHttpChannelState().isInitial() && !LoadSheddingHandler.isExempt(target)) {
+            if (!tryAcquire()) {
+                rejected.mark();
+                LoadSheddingHandler.reject(baseRequest, response);
+                return;
+            }
+            // Released by onRequestComplete, once the enclosing handler sees the request finish
+            baseRequest.setAttribute(PERMIT_ATTRIBUTE, Boolean.TRUE);
+        }
+        super.handle(target, baseRequest, request, response);
+    }
+
+    @Override
+    public void onRequestComplete(Request request, long elapsedMillis) {
+        if (request.getAttribute(PERMIT_ATTRIBUTE) != null) {
+            request.removeAttribute(PERMIT_ATTRIBUTE);
+            release(elapsedMillis, System.nanoTime());
+        }
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    @VisibleForTesting
+    boolean tryAcquire() {
+        while (true) {
+            final int current = inflight.get();
+            if (current >= getLimit()) {
+                return false;
+            }
+            if (inflight.compareAndSet(current, current + 1)) {
+                final int now = current + 1;
+                if (now > windowPeakInflight.get()) {
+                    windowPeakInflight.accumulateAndGet(now, Math::max);
+                }
+                return true;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void release(long latencyMillis, long nowNanos) {
+        inflight.decrementAndGet();
+        windowLatencySum.add(latencyMillis);
+        windowSamples.increment();
+
+        final long end = windowEnd.get();
+        if (nowNanos - end >= 0 && windowSamples.sum() >= MIN_WINDOW_SAMPLES
+                && windowEnd.compareAndSet(end, nowNanos + WINDOW_NANOS)) {
+            updateLimit();
+        }
+    }
+
+    private void updateLimit() {
+        final long samples = windowSamples.sumThenReset();
+        // Millisecond latencies can legitimately average to zero, so floor them
+        final double latency = Math.max(1, (double) windowLatencySum.sumThenReset() / samples);
+        final int peak = windowPeakInflight.getAndSet(inflight.get());
+
+        if (++windowsSinceReset >= MIN_LATENCY_RESET_WINDOWS || minLatency == 0 || latency < minLatency) {
+            windowsSinceReset = 0;
+            minLatency = latency;
+        }
+
+        final double current = limit;
+        final double gradient = Math.max(MIN_GRADIENT, Math.min(1, tolerance * minLatency / latency));
+        double next = current * gradient + Math.sqrt(current);
+        if (peak < current / 2) {
+            // We didn't come close to using the limit, so latency says nothing about whether we could take more
+            next = Math.min(next, current);
+        }
+        next = current * (1 - SMOOTHING) + next * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Time-weighted view of how many requests are in flight. The {@code active-requests} counter only tells you
+ * the value at the instant it was reported, which for spiky traffic is mostly noise; this integrates it over
+ * time instead.
+ *
+ * <p>
+ * Per 10 second window, rolled on a schedule between {@link #start} and {@link #stop}, we report:
+ * <ul>
+ *     <li>{@code average-inflight}: the time-weighted mean number of requests in flight</li>
+ *     <li>{@code peak-inflight}: the most requests in flight at once</li>
+ *     <li>{@code implied-capacity}: by Little's law the mean latency is {@code average-inflight / throughput};
+ *     this is the throughput, in requests per second, we'd get running at the peak concurrency at that latency</li>
+ * </ul>
+ *
+ * <p>
+ * Both the in-flight count and the time it last changed live in one {@code long}, updated with a CAS, so the
+ * area under the curve is accumulated exactly without taking a lock on the request path. The gauges only read the
+ * last completed window, so however often they are read, they neither skew it nor contend with requests.
+ */
+class ConcurrencyTracker {
+    private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyTracker.class);
+    // The default reporting period
+    private static final Duration WINDOW = Duration.ofSeconds(10);
+    private static final int INFLIGHT_BITS = 20;
+    private static final long INFLIGHT_MASK = (1L << INFLIGHT_BITS) - 1;
+    // Microseconds; wraps after ~200 days, which only matters if nothing at all happens for that long
+    private static final long TIME_MASK = -1L >>> INFLIGHT_BITS;
+
+    private final LongSupplier nanoClock;
+    private final long origin;
+
+    // (time of last change << INFLIGHT_BITS) | inflight
+    private final AtomicLong state;
+    // Request-microseconds, up to the last change
+    private final LongAdder area = new LongAdder();
+    private final AtomicLong peak = new AtomicLong();
+    private final LongAdder completed = new LongAdder();
+
+    // Only touched by the rolling thread
+    private long windowStart;
+    private long windowStartArea;
+    private long windowStartCompleted;
+    private volatile Window window = new Window(0, 0, 0);
+    private ScheduledFuture<?> task;
+
+    ConcurrencyTracker() {
+        this(System::nanoTime);
+    }
+
+    @VisibleForTesting
+    ConcurrencyTracker(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.origin = nanoClock.getAsLong();
+        this.state = new AtomicLong(0);
+    }
+
+    /**
+     * Register the gauges.
+     * @param registry the registry to register on
+     * @param prefix the prefix for the gauge names
+     */
+    void register(MetricRegistry registry, String prefix) {
+        registry.gauge(name(prefix, "average-inflight"), () -> (Gauge<Double>) () -> window().averageInflight);
+        registry.gauge(name(prefix, "peak-inflight"), () -> (Gauge<Long>) () -> window().peakInflight);
+        registry.gauge(name(prefix, "implied-capacity"), () -> (Gauge<Double>) () -> window().impliedCapacity);
+    }
+
+    /**
+     * @return a scheduler, shared by every tracker in the JVM, for trackers whose owner doesn't supply one
+     */
+    static ScheduledExecutorService sharedScheduler() {
+        return SharedScheduler.INSTANCE;
+    }
+
+    /**
+     * Start rolling windows.
+     * @param scheduler where to roll them; rolling is brief, so one thread can serve many trackers
+     */
+    synchronized void start(ScheduledExecutorService scheduler) {
+        if (task != null) {
+            return;
+        }
+        windowStart = micros();
+        task = scheduler.scheduleAtFixedRate(this::poll, WINDOW.toMillis(), WINDOW.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop rolling windows; the gauges keep reporting the last one. The scheduler is left running.
+     */
+    synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    /**
+     * A request started.
+     */
+    void increment() {
+        final long inflight = update(1);
+        if (inflight > peak.get()) {
+            peak.accumulateAndGet(inflight, Math::max);
+        }
+    }
+
+    /**
+     * A request finished.
+     */
+    void decrement() {
+        update(-1);
+        completed.increment();
+    }
+
+    private long update(int delta) {
+        while (true) {
+            final long current = state.get();
+            final long inflight = current & INFLIGHT_MASK;
+            final long now = micros();
+            final long next = Math.max(0, inflight + delta);
+            if (state.compareAndSet(current, (now << INFLIGHT_BITS) | next)) {
+                area.add(inflight * elapsed(current, now));
+                return next;
+            }
+        }
+    }
+
+    /**
+     * @return the last completed window
+     */
+    @VisibleForTesting
+    Window window() {
+        return window;
+    }
+
+    private void poll() {
+        try {
+            roll();
+        } catch (RuntimeException e) {
+            LOG.error("Error rolling concurrency window", e);
+        }
+    }
+
+    /**
+     * Complete the current window and start the next.
+     * @return the window just completed
+     */
+    @VisibleForTesting
+    Window roll() {
+        final long now = micros();
+        final long length = (now - windowStart) & TIME_MASK;
+        if (length == 0) {
+            return window;
+        }
+        final long current = state.get();
+        final long inflight = current & INFLIGHT_MASK;
+        final long totalArea = area.sum() + inflight * elapsed(current, now);
+        final long totalCompleted = completed.sum();
+
+        final double averageInflight = (double) (totalArea - windowStartArea) / length;
+        final double throughput = (totalCompleted - windowStartCompleted) / (length / 1e6);
+        final long peakInflight = peak.getAndSet(inflight);
+        window = new Window(averageInflight, peakInflight,
+                averageInflight > 0 ? peakInflight * throughput / averageInflight : 0);
+
+        windowStart = now;
+        windowStartArea = totalArea;
+        windowStartCompleted = totalCompleted;
+        return window;
+    }
+
+    private long micros() {
+        return TimeUnit.NANOSECONDS.toMicros(nanoClock.getAsLong() - origin) & TIME_MASK;
+    }
+
+    private static long elapsed(long state, long now) {
+        return (now - (state >>> INFLIGHT_BITS)) & TIME_MASK;
+    }
+
+    @VisibleForTesting
+    static class Window {
+        final double averageInflight;
+        final long peakInflight;
+        final double impliedCapacity;
+
+        Window(double averageInflight, long peakInflight, double impliedCapacity) {
+            this.averageInflight = averageInflight;
+            this.peakInflight = peakInflight;
+            this.impliedCapacity = impliedCapacity;
+        }
+    }
+
+    // Created on first use, so it costs nothing when every owner supplies a scheduler
+    private static final class SharedScheduler {
+        private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("concurrency-window-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+}
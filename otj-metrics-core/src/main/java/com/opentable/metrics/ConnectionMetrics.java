@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.LockFreeExponentiallyDecayingReservoir;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import org.eclipse.jetty.io.Connection;
+
+/**
+ * Jetty {@link Connection.Listener} reporting on connections rather than requests: how many are open, how fast
+ * they are accepted, and per connection how long it lived, how many requests it carried and how many bytes it
+ * moved. Useful for telling keep-alive problems (clients or load balancers churning connections) from actual
+ * request load. Must be added as a bean on the connectors, see {@link JettyServerMetricsConfiguration#statusReporter}.
+ * Like {@link JobMetrics}, the timer and histograms use a lock-free reservoir, as every connection close updates them.
+ */
+class ConnectionMetrics implements Connection.Listener {
+    private final Counter openConnections;
+    private final Meter acceptedConnections;
+    private final Timer connectionDuration;
+    private final Histogram requestsPerConnection;
+    private final Histogram bytesInPerConnection;
+    private final Histogram bytesOutPerConnection;
+
+    /**
+     * Create connection metrics.
+     * @param registry the registry for the metrics
+     * @param prefix the prefix to use for the metrics names
+     */
+    ConnectionMetrics(MetricRegistry registry, String prefix) {
+        final String connections = name(prefix, "connections");
+        this.openConnections = registry.counter(name(connections, "open"));
+        this.acceptedConnections = registry.meter(name(connections, "accepted"));
+        this.connectionDuration = registry.timer(name(connections, "duration"), ConnectionMetrics::lockFreeTimer);
+        this.requestsPerConnection = registry.histogram(name(connections, "requests"),
+                ConnectionMetrics::lockFreeHistogram);
+        this.bytesInPerConnection = registry.histogram(name(connections, "bytes-in"),
+                ConnectionMetrics::lockFreeHistogram);
+        this.bytesOutPerConnection = registry.histogram(name(connections, "bytes-out"),
+                ConnectionMetrics::lockFreeHistogram);
+    }
+
+    @Override
+    public void onOpened(Connection connection) {
+        openConnections.inc();
+        acceptedConnections.mark();
+    }
+
+    @Override
+    public void onClosed(Connection connection) {
+        openConnections.dec();
+        connectionDuration.update(System.currentTimeMillis() - connection.getCreatedTimeStamp(), TimeUnit.MILLISECONDS);
+        requestsPerConnection.update(connection.getMessagesIn());
+        bytesInPerConnection.update(connection.getBytesIn());
+        bytesOutPerConnection.update(connection.getBytesOut());
+    }
+
+    private static Timer lockFreeTimer() {
+        return new Timer(LockFreeExponentiallyDecayingReservoir.builder().build());
+    }
+
+    private static Histogram lockFreeHistogram() {
+        return new Histogram(LockFreeExponentiallyDecayingReservoir.builder().build());
+    }
+}
@@ -13,18 +13,31 @@
  */
 package com.opentable.metrics;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Provider;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.dropwizard.metrics.jetty10.InstrumentedQueuedThreadPool;
 
+import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.component.LifeCycle;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
@@ -40,25 +53,84 @@ import com.opentable.conservedheaders.ConservedHeader;
 @SuppressWarnings("ALL")
 @Configuration
 public class JettyServerMetricsConfiguration {
-    private static final String PREFIX = "http-server";
+    private static final Logger LOG = LoggerFactory.getLogger(JettyServerMetricsConfiguration.class);
+    static final String PREFIX = "http-server";
+
+    @Value("${ot.httpserver.virtual-threads.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${ot.httpserver.load-shedding.enabled:false}")
+    private boolean loadSheddingEnabled;
+
+    @Value("${ot.httpserver.load-shedding.max-active-requests:0}")
+    private long loadSheddingMaxActiveRequests;
+
+    @Value("${ot.httpserver.load-shedding.max-queue-wait:PT0S}")
+    private Duration loadSheddingMaxQueueWait = Duration.ZERO;
+
+    @Value("${ot.httpserver.adaptive-limit.enabled:false}")
+    private boolean adaptiveLimitEnabled;
+
+    @Value("${ot.httpserver.adaptive-limit.initial-limit:50}")
+    private int adaptiveLimitInitial = 50;
+
+    @Value("${ot.httpserver.adaptive-limit.min-limit:10}")
+    private int adaptiveLimitMin = 10;
+
+    @Value("${ot.httpserver.adaptive-limit.max-limit:1000}")
+    private int adaptiveLimitMax = 1000;
+
+    @Value("${ot.httpserver.adaptive-limit.tolerance:1.5}")
+    private double adaptiveLimitTolerance = 1.5;
+
+    @Value("${ot.httpserver.referring-service-tracking:}")
+    private String[] trackedReferringServices = new String[0];
+
+    /** The most recently provided request pool; the load shedder reads its queue wait. */
+    private final AtomicReference<OTQueuedThreadPool> requestPool = new AtomicReference<>();
+
+    /** Rolls the concurrency windows of every handler made by the customizer below. */
+    private final ScheduledExecutorService handlerScheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("http-server-metrics-%d")
+            .setDaemon(true)
+            .build()
+    );
 
     /**
-     * Create/expose a queued thread pool to use for the Jetty request pool
+     * Create/expose a queued thread pool to use for the Jetty request pool.
+     * If "ot.httpserver.virtual-threads.enabled" is set and the JVM supports it, requests are handled on
+     * virtual threads instead; see {@link VirtualThreadQueuedThreadPool}. Their jobs never queue, so
+     * "ot.httpserver.load-shedding.max-queue-wait" has no effect then. Pinning of those virtual threads is only
+     * reported (as "jvm.jfr.virtual-thread-pinned") with "ot.metrics.jfr.enabled" set.
      * @param metricRegistry the metric registry to use for recording thread pool metrics
      * @param qSize the size of the the thread pool. Configured by "ot.httpserver.queue-size", defaults to 32,768 - THIS IS IGNORED
      * @return the queued thread pool to use for requests
      */
     @Bean
     public Provider<QueuedThreadPool> getIQTPProvider(final MetricRegistry metricRegistry, @Value("${ot.httpserver.queue-size:32768}") int qSize) {
+        final boolean useVirtualThreads = virtualThreadsEnabled && VirtualThreadQueuedThreadPool.isSupported();
+        if (virtualThreadsEnabled && !useVirtualThreads) {
+            LOG.warn("Virtual threads requested but not supported by this JVM ({}); using platform threads",
+                    System.getProperty("java.version"));
+        }
+        if (useVirtualThreads && loadSheddingEnabled && !loadSheddingMaxQueueWait.isZero()) {
+            LOG.warn("Load shedding on queue wait has no effect with virtual threads, whose jobs never queue;"
+                    + " use ot.httpserver.load-shedding.max-active-requests instead");
+        }
         return () -> {
-            final InstrumentedQueuedThreadPool pool = new OTQueuedThreadPool(metricRegistry, qSize);
+            final OTQueuedThreadPool pool = useVirtualThreads
+                    ? new VirtualThreadQueuedThreadPool(metricRegistry, qSize)
+                    : new OTQueuedThreadPool(metricRegistry, qSize);
             pool.setName("default-pool");
+            requestPool.set(pool);
             return pool;
         };
     }
 
     /**
-     * Create a consumer that wraps the servers request log with a wrapper that reports metrics for each HTTP status code returned
+     * Create a consumer that wraps the servers request log with a wrapper that reports metrics for each HTTP status code returned,
+     * and attaches {@link ConnectionMetrics} and {@link PreDispatchDelay} to the server's connectors
      * @param metrics registry to register metrics with
      * @return the consumer to add the status code metrics wrapper
      */
@@ -66,27 +138,99 @@ public class JettyServerMetricsConfiguration {
     public Consumer<Server> statusReporter(MetricRegistry metrics) {
         return server -> {
             server.setRequestLog(new StatusCodeMetrics(server.getRequestLog(), metrics, PREFIX));
+            addToConnectors(server, new ConnectionMetrics(metrics, PREFIX));
+            addToConnectors(server, new PreDispatchDelay(metrics, PREFIX));
         };
     }
 
     /**
-     * Create a {@link Handler} customizer that wraps the handler in an {@link OTInstrumentedHandler} which report metrics for the handler
+     * Add a bean, such as a connection or channel listener, to all of the server's connectors. They are only looked
+     * at when the server starts, so this works whether or not they've been added yet.
+     * @param server the server
+     * @param bean the bean to add to each connector
+     */
+    static void addToConnectors(Server server, Object bean) {
+        server.addEventListener(new LifeCycle.Listener() {
+            @Override
+            public void lifeCycleStarting(LifeCycle event) {
+                for (final Connector connector : server.getConnectors()) {
+                    connector.addBean(bean);
+                }
+            }
+        });
+    }
+
+    /**
+     * Create the sampler of the slowest requests per interval, fed by the handler customizer below.
+     * @param size how many requests to keep per interval. Configured by "ot.httpserver.slow-requests.size", defaults to 10
+     * @param interval the interval length. Configured by "ot.httpserver.slow-requests.interval", defaults to the Graphite reporting period
+     * @return the slow request sampler
+     */
+    @Bean
+    public SlowRequestSampler slowRequestSampler(@Value("${ot.httpserver.slow-requests.size:10}") int size,
+            @Value("${ot.httpserver.slow-requests.interval:${ot.graphite.reporting-period:PT10s}}") Duration interval) {
+        return new SlowRequestSampler(size, interval);
+    }
+
+    /**
+     * Create a {@link Handler} customizer that wraps the handler in an {@link OTInstrumentedHandler} which report metrics for the handler.
+     * If "ot.httpserver.load-shedding.enabled" is set, a {@link LoadSheddingHandler} is placed inside it, and likewise
+     * an {@link AdaptiveConcurrencyLimitHandler} for "ot.httpserver.adaptive-limit.enabled", so that rejected
+     * requests still show up in the response metrics.
+     * Services listed in "ot.httpserver.referring-service-tracking" get their own {@link ReferringServiceMetrics}.
      * @param metrics metric registry to register the metrics on
+     * @param slowRequests sampler told about every completed request
      * @return a Handler customizer to add metrics to the Handler
      */
     @Bean
-    public Function<Handler, Handler> getHandlerCustomizer(final MetricRegistry metrics) {
+    public Function<Handler, Handler> getHandlerCustomizer(final MetricRegistry metrics, final SlowRequestSampler slowRequests) {
         return handler -> {
-            final OTInstrumentedHandler instrumented = new OTInstrumentedHandler(metrics, PREFIX);
-            instrumented.setHandler(handler);
+            final OTInstrumentedHandler instrumented = new OTInstrumentedHandler(metrics, PREFIX, handlerScheduler);
+            instrumented.addRequestListener(slowRequests);
+            if (trackedReferringServices.length > 0) {
+                instrumented.addRequestListener(new ReferringServiceMetrics(metrics, PREFIX,
+                        Arrays.asList(trackedReferringServices)));
+            }
+            Handler inner = handler;
+            if (adaptiveLimitEnabled) {
+                final AdaptiveConcurrencyLimitHandler limiter = new AdaptiveConcurrencyLimitHandler(metrics, PREFIX,
+                        adaptiveLimitInitial, adaptiveLimitMin, adaptiveLimitMax, adaptiveLimitTolerance);
+                limiter.setHandler(inner);
+                instrumented.addRequestListener(limiter);
+                inner = limiter;
+            }
+            if (loadSheddingEnabled) {
+                final LoadSheddingHandler shedder = new LoadSheddingHandler(metrics, PREFIX,
+                        instrumented::getActiveRequestCount, this::queueWaitNanos,
+                        loadSheddingMaxActiveRequests, loadSheddingMaxQueueWait);
+                shedder.setHandler(inner);
+                inner = shedder;
+            }
+            instrumented.setHandler(inner);
             return instrumented;
         };
     }
 
     /**
-     * Instrumented Queued Thread Pool that removes request ID from the MDC after the job is run
+     * Stop the handlers' scheduler
+     */
+    @PreDestroy
+    void preDestroy() {
+        handlerScheduler.shutdownNow();
+    }
+
+    private long queueWaitNanos() {
+        final OTQueuedThreadPool pool = requestPool.get();
+        return pool == null ? 0 : pool.getQueueWaitNanos();
+    }
+
+    /**
+     * Instrumented Queued Thread Pool that removes request ID from the MDC after the job is run, and records
+     * per-job queue wait and run time (see {@link JobMetrics}) under the pool's metric prefix.
      */
     static class OTQueuedThreadPool extends InstrumentedQueuedThreadPool {
+        private final MetricRegistry metricRegistry;
+        private volatile JobMetrics jobMetrics;
 
         /**
          * Create a queued thread pool. Handles request Id in MDC.
@@ -102,6 +246,41 @@ public class JettyServerMetricsConfiguration {
                 // when you throw RejectedExecutionException due to a full work queue.
                 // So we leave it unbounded since even an OOME is preferable.
                 new BlockingArrayQueue<>());
+            this.metricRegistry = metricRegistry;
+        }
+
+        @Override
+        protected void doStart() throws Exception {
+            super.doStart();
+            // Same prefix InstrumentedQueuedThreadPool uses for its own gauges
+            jobMetrics = new JobMetrics(metricRegistry, name(QueuedThreadPool.class, getName()));
+        }
+
+        /**
+         * @return the job metrics, or null if the pool hasn't been started
+         */
+        JobMetrics getJobMetrics() {
+            return jobMetrics;
+        }
+
+        /**
+         * Jobs handed straight to a reserved thread never touch the queue, so the last observed wait can go stale
+         * once the queue drains; hence we only report it while something is actually queued.
+         *
+         * @return an estimate of how long jobs are currently waiting in the queue, in nanoseconds
+         */
+        long getQueueWaitNanos() {
+            final JobMetrics metrics = jobMetrics;
+            if (metrics == null || getQueueSize() == 0) {
+                return 0;
+            }
+            return metrics.getLastQueueWaitNanos();
+        }
+
+        @Override
+        public void execute(Runnable job) {
+            final JobMetrics metrics = jobMetrics;
+            super.execute(metrics == null ? job : metrics.wrap(job));
         }
 
         @Override
@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.LockFreeExponentiallyDecayingReservoir;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Per-job timing for a Jetty thread pool.  Jobs are wrapped on submission so that we can record how long
+ * they sat in the queue before a thread picked them up ({@code queue-wait}) and how long they then ran
+ * ({@code job-duration}).  The queue wait is the real signal of pool saturation; queue size alone doesn't
+ * tell you whether those jobs are cheap or not.  We also count {@code submitted-jobs} and {@code active-jobs},
+ * which (unlike the {@link io.dropwizard.metrics.jetty10.InstrumentedQueuedThreadPool} gauges) mean the same
+ * thing whether jobs run on pooled platform threads or on virtual threads.
+ *
+ * <p>
+ * Both timers are updated on every job, so they use a lock-free reservoir.
+ *
+ * <p>
+ * While a wrapped job runs, {@link #currentJobSubmitNanos()} tells when it was submitted, for {@link PreDispatchDelay}.
+ */
+class JobMetrics {
+    /** Submit time of the wrapped job the thread is running, or -1; an array so that jobs don't box */
+    private static final ThreadLocal<long[]> CURRENT_SUBMIT = ThreadLocal.withInitial(() -> new long[] {-1});
+
+    private final Timer queueWait;
+    private final Timer jobDuration;
+    private final Meter submittedJobs;
+    private final Counter activeJobs;
+    private volatile long lastQueueWaitNanos;
+
+    /**
+     * Create (or look up) job metrics.
+     * @param registry the metric registry to register the metrics on
+     * @param prefix the pool's metric prefix
+     */
+    JobMetrics(MetricRegistry registry, String prefix) {
+        this.queueWait = registry.timer(name(prefix, "queue-wait"), JobMetrics::lockFreeTimer);
+        this.jobDuration = registry.timer(name(prefix, "job-duration"), JobMetrics::lockFreeTimer);
+        this.submittedJobs = registry.meter(name(prefix, "submitted-jobs"));
+        this.activeJobs = registry.counter(name(prefix, "active-jobs"));
+    }
+
+    /**
+     * Wrap a job so it records its queue wait and run time when run.
+     * @param job the job being submitted
+     * @return the wrapped job
+     */
+    Runnable wrap(Runnable job) {
+        submittedJobs.mark();
+        return new TimedJob(job, System.nanoTime());
+    }
+
+    /**
+     * @return when the wrapped job this thread is running was submitted, per {@link System#nanoTime()}; or -1 if it
+     * isn't running one, e.g. it's a selector thread, or a reserved thread that was handed the job directly
+     */
+    static long currentJobSubmitNanos() {
+        return CURRENT_SUBMIT.get()[0];
+    }
+
+    /**
+     * @return the queue wait of the most recently started job, in nanoseconds
+     */
+    long getLastQueueWaitNanos() {
+        return lastQueueWaitNanos;
+    }
+
+    private static Timer lockFreeTimer() {
+        return new Timer(LockFreeExponentiallyDecayingReservoir.builder().build());
+    }
+
+    /**
+     * Closeable so that Jetty can still close jobs that were never run when the pool stops.
+     */
+    private class TimedJob implements Runnable, Closeable {
+        private final Runnable delegate;
+        private final long enqueuedNanos;
+
+        TimedJob(Runnable delegate, long enqueuedNanos) {
+            this.delegate = delegate;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+            final long waited = start - enqueuedNanos;
+            lastQueueWaitNanos = waited;
+            queueWait.update(waited, TimeUnit.NANOSECONDS);
+            final long[] current = CURRENT_SUBMIT.get();
+            final long previous = current[0];
+            current[0] = enqueuedNanos;
+            activeJobs.inc();
+            try {
+                delegate.run();
+            } finally {
+                current[0] = previous;
+                activeJobs.dec();
+                jobDuration.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (delegate instanceof Closeable) {
+                ((Closeable) delegate).close();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+}
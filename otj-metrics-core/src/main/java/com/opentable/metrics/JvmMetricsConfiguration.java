@@ -13,25 +13,41 @@
  */
 package com.opentable.metrics;
 
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.inject.Named;
 import javax.management.MBeanServer;
 
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.health.HealthCheckRegistry;
 import com.codahale.metrics.jvm.BufferPoolMetricSet;
 import com.codahale.metrics.jvm.ClassLoadingGaugeSet;
 import com.codahale.metrics.jvm.GarbageCollectorMetricSet;
 import com.codahale.metrics.jvm.MemoryUsageGaugeSet;
-import com.codahale.metrics.jvm.ThreadStatesGaugeSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.springframework.beans.factory.annotation.Value;
 
 import com.opentable.metrics.graphite.MetricSets;
+import com.opentable.metrics.jvm.AllocationRateMetrics;
+import com.opentable.metrics.jvm.CgroupMetricSet;
+import com.opentable.metrics.jvm.ContentionMetrics;
 import com.opentable.metrics.jvm.CpuLoadByCoreGauge;
 import com.opentable.metrics.jvm.CpuLoadGauge;
+import com.opentable.metrics.jvm.CpuUsageMetrics;
 import com.opentable.metrics.jvm.FileDescriptorMetricSet;
 import com.opentable.metrics.jvm.GcMemoryMetrics;
+import com.opentable.metrics.jvm.JfrMetrics;
+import com.opentable.metrics.jvm.JitMetricSet;
 import com.opentable.metrics.jvm.MemoryFreeMetricSet;
 import com.opentable.metrics.jvm.NmtMetrics;
+import com.opentable.metrics.jvm.ProcMetricSet;
+import com.opentable.metrics.jvm.ThreadSnapshotMetricSet;
 
 /**
  * Configure metrics about JVM internals
@@ -41,19 +57,65 @@ public class JvmMetricsConfiguration {
     private static final String BASE = "jvm";
     private final MetricRegistry metrics;
     private final MBeanServer mbs;
+    private final HealthCheckRegistry healthChecks;
+    private final ProcMetricSet procMetrics = new ProcMetricSet();
+    // Shared by the pollers below; each poll is brief
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder()
+            .setNameFormat("jvm-metrics-%d")
+            .setDaemon(true)
+            .build()
+    );
     private final NmtMetrics nmtMetrics;
+    private final AllocationRateMetrics allocationRateMetrics;
+    private final CpuUsageMetrics cpuUsageMetrics;
+    private JfrMetrics jfrMetrics;
+    private ContentionMetrics contentionMetrics;
+
+    @Value("${ot.metrics.jfr.enabled:false}")
+    private boolean jfrEnabled;
+
+    @Value("${ot.metrics.jfr.gc-pause-threshold:PT0S}")
+    private Duration jfrGcPauseThreshold = Duration.ZERO;
+
+    @Value("${ot.metrics.jfr.safepoint-threshold:PT0S}")
+    private Duration jfrSafepointThreshold = Duration.ZERO;
+
+    @Value("${ot.metrics.jfr.monitor-enter-threshold:PT0.02S}")
+    private Duration jfrMonitorEnterThreshold = Duration.ofMillis(20);
+
+    // Off by default: most parks over any useful threshold are idle pool threads waiting for work
+    @Value("${ot.metrics.jfr.thread-park.enabled:false}")
+    private boolean jfrThreadParkEnabled;
+
+    @Value("${ot.metrics.jfr.thread-park-threshold:PT0.02S}")
+    private Duration jfrThreadParkThreshold = Duration.ofMillis(20);
+
+    @Value("${ot.metrics.jfr.virtual-thread-pinned-threshold:PT0.02S}")
+    private Duration jfrVirtualThreadPinnedThreshold = Duration.ofMillis(20);
+
+    @Value("${ot.metrics.contention.enabled:false}")
+    private boolean contentionEnabled;
 
     /**
      * Create JVM Metrics configuration
      *
      * @param metrics the metrics registry to register metrics on
      * @param mbs mBean server used to get metrics on buffer pools
+     * @param healthChecks the health check registry, for the optional contention and deadlock checks
+     * @param gcOverheadWindow window of the {@code jvm.gc-mem.overhead} gauge, also used by the GC overhead checks
      */
-    JvmMetricsConfiguration(final MetricRegistry metrics, final MBeanServer mbs) {
+    JvmMetricsConfiguration(final MetricRegistry metrics, final MBeanServer mbs,
+                            final HealthCheckRegistry healthChecks,
+                            @Value("${ot.metrics.gc-overhead.window:PT1M}") final Duration gcOverheadWindow) {
         this.metrics = metrics;
         this.mbs = mbs;
+        this.healthChecks = healthChecks;
         nmtMetrics = new NmtMetrics(String.format("%s.nmt", BASE), metrics);
-        new GcMemoryMetrics(String.format("%s.gc-mem", BASE), metrics);
+        allocationRateMetrics = new AllocationRateMetrics(String.format("%s.alloc", BASE), metrics);
+        cpuUsageMetrics = new CpuUsageMetrics(String.format("%s.cpu", BASE), metrics, procMetrics,
+                MetricRegistry.name(JettyServerMetricsConfiguration.PREFIX, "requests"));
+        new GcMemoryMetrics(String.format("%s.gc-mem", BASE), metrics, gcOverheadWindow);
     }
 
     /**
@@ -74,13 +136,45 @@ public class JvmMetricsConfiguration {
     void postConstruct() {
         metrics.registerAll(namespace("bufpool", new BufferPoolMetricSet(mbs)));
         metrics.registerAll(namespace("fd", new FileDescriptorMetricSet()));
+        metrics.registerAll(namespace("cgroup", new CgroupMetricSet()));
+        metrics.registerAll(namespace("proc", procMetrics));
         metrics.registerAll(namespace("gc", new GarbageCollectorMetricSet()));
         metrics.registerAll(namespace("mem", new MemoryUsageGaugeSet()));
         metrics.registerAll(namespace("mem", new MemoryFreeMetricSet()));
         metrics.registerAll(namespace("class", new ClassLoadingGaugeSet()));
-        metrics.registerAll(namespace("thread", new ThreadStatesGaugeSet()));
+        metrics.registerAll(namespace("jit", new JitMetricSet()));
+        metrics.registerAll(namespace("thread", new ThreadSnapshotMetricSet()));
         metrics.register(BASE + ".cpu.load", new CpuLoadGauge());
         metrics.register(BASE + ".cpu.loadbycore", new CpuLoadByCoreGauge());
-        nmtMetrics.register();
+        nmtMetrics.register(scheduler);
+        allocationRateMetrics.register(scheduler);
+        cpuUsageMetrics.register(scheduler);
+        if (jfrEnabled) {
+            jfrMetrics = new JfrMetrics(String.format("%s.jfr", BASE), metrics, new JfrMetrics.Thresholds(
+                    jfrGcPauseThreshold, jfrSafepointThreshold, jfrMonitorEnterThreshold,
+                    jfrThreadParkEnabled ? jfrThreadParkThreshold : null, jfrVirtualThreadPinnedThreshold));
+            jfrMetrics.start();
+        }
+        if (contentionEnabled) {
+            contentionMetrics = new ContentionMetrics(String.format("%s.contention", BASE), metrics);
+            contentionMetrics.register(healthChecks, scheduler);
+        }
+    }
+
+    /**
+     * Stop polling, streaming JFR events and sampling contention
+     */
+    @PreDestroy
+    void preDestroy() {
+        nmtMetrics.close();
+        allocationRateMetrics.close();
+        cpuUsageMetrics.close();
+        if (jfrMetrics != null) {
+            jfrMetrics.close();
+        }
+        if (contentionMetrics != null) {
+            contentionMetrics.close();
+        }
+        scheduler.shutdownNow();
     }
 }
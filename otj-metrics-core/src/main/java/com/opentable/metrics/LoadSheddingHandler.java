@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import com.opentable.metrics.health.HealthConfiguration;
+import com.opentable.metrics.ready.ReadyConfiguration;
+
+/**
+ * Rejects new requests with a fast 503 once the server is overloaded, rather than letting the (necessarily
+ * unbounded, see {@link JettyServerMetricsConfiguration.OTQueuedThreadPool}) request queue grow until latency
+ * explodes for everyone.
+ *
+ * <p>
+ * Overload is judged from metrics we already collect: the current queue wait of the request pool
+ * and the {@code active-requests} count of the enclosing {@link OTInstrumentedHandler}. A limit of zero
+ * disables that particular check. With a {@link VirtualThreadQueuedThreadPool} nothing ever queues, so only
+ * the active requests limit has any effect. Health and ready checks are never shed, so that orchestration doesn't
+ * kill a pod just for being busy.
+ */
+public class LoadSheddingHandler extends HandlerWrapper {
+    private static final String[] EXEMPT_PATHS = {
+            HealthConfiguration.HEALTH_CHECK_PATH,
+            HealthConfiguration.NEW_HEALTH_CHECK_PATH,
+            ReadyConfiguration.READY_CHECK_PATH,
+    };
+
+    private final MetricRegistry metricRegistry;
+    private final String prefix;
+    private final LongSupplier activeRequests;
+    private final LongSupplier queueWaitNanos;
+    private final long maxActiveRequests;
+    private final Duration maxQueueWait;
+
+    private Meter shed;
+
+    /**
+     * Create a load shedding handler.
+     *
+     * @param registry the registry for the metrics
+     * @param prefix the prefix to use for the metrics names
+     * @param activeRequests supplies the number of requests currently in flight
+     * @param queueWaitNanos supplies the current request pool queue wait, in nanoseconds
+     * @param maxActiveRequests shed once more than this many requests are in flight; zero to disable
+     * @param maxQueueWait shed once jobs have waited longer than this in the request pool queue; zero to disable
+     */
+    public LoadSheddingHandler(MetricRegistry registry, String prefix,
+                               LongSupplier activeRequests, LongSupplier queueWaitNanos,
+                               long maxActiveRequests, Duration maxQueueWait) {
+        this.metricRegistry = registry;
+        this.prefix = name(prefix, "load-shedding");
+        this.activeRequests = activeRequests;
+        this.queueWaitNanos = queueWaitNanos;
+        this.maxActiveRequests = maxActiveRequests;
+        this.maxQueueWait = maxQueueWait;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        this.shed = metricRegistry.meter(name(prefix, "shed"));
+        metricRegistry.gauge(name(prefix, "active-requests-limit"), () -> (Gauge<Long>) () -> maxActiveRequests);
+        metricRegistry.gauge(name(prefix, "queue-wait-limit-ms"), () -> (Gauge<Long>) maxQueueWait::toMillis);
+    }
+
+    @Override
+    public void handle(String target,
+                       Request baseRequest,
+                       HttpServletRequest request,
+                       HttpServletResponse response) throws IOException, ServletException {
+        // Only ever turn away new work; a resumed async request has already been paid for
+        if (baseRequest.getHttpChannelState().isInitial() && isOverloaded() && !isExempt(target)) {
+            shed.mark();
+            reject(baseRequest, response);
+            return;
+        }
+        super.handle(target, baseRequest, request, response);
+    }
+
+    private boolean isOverloaded() {
+        if (maxActiveRequests > 0 && activeRequests.getAsLong() > maxActiveRequests) {
+            return true;
+        }
+        return !maxQueueWait.isZero() && queueWaitNanos.getAsLong() > maxQueueWait.toNanos();
+    }
+
+    /**
+     * @param target the request target
+     * @return whether the target is a health or ready check, which must never be rejected; that is, one of their
+     * paths or below it, matching whole path segments so that e.g. {@code /healthy-cats} is not exempt
+     */
+    static boolean isExempt(String target) {
+        if (target == null) {
+            return false;
+        }
+        for (final String path : EXEMPT_PATHS) {
+            if (target.startsWith(path)
+                    && (target.length() == path.length() || target.charAt(path.length()) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Complete the request with a bare 503, without touching the wrapped handler.
+     * @param baseRequest the Jetty request
+     * @param response the response to send
+     */
+    static void reject(Request baseRequest, HttpServletResponse response) {
+        baseRequest.setHandled(true);
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+}
@@ -16,6 +16,9 @@ package com.opentable.metrics;
 import static com.codahale.metrics.MetricRegistry.name;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.servlet.AsyncEvent;
@@ -47,7 +50,10 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  */
 @SuppressFBWarnings("BC_UNCONFIRMED_CAST")
 public class OTInstrumentedHandler extends HandlerWrapper {
+    private static final String ASYNC_TIMES_ATTRIBUTE = OTInstrumentedHandler.class.getName() + ".asyncTimes";
+
     private final MetricRegistry metricRegistry;
+    private final ScheduledExecutorService scheduler;
 
     private String name;
     private final String prefix;
@@ -61,12 +67,21 @@ public class OTInstrumentedHandler extends HandlerWrapper {
     // the number of active requests
     private Counter activeRequests;
 
+    // time-weighted view of active requests
+    private final ConcurrencyTracker concurrency = new ConcurrencyTracker();
+
     // the number of active dispatches
     private Counter activeDispatches;
 
     // the number of requests currently suspended.
     private Counter activeSuspended;
 
+    // time requests spent being handled on a thread, summed across dispatches
+    private Timer onThreadTime;
+
+    // time asynchronous requests spent suspended, between and after dispatches
+    private Timer suspendedTime;
+
     // the number of requests that have been asynchronously dispatched
     private Meter asyncDispatches;
 
@@ -88,6 +103,8 @@ public class OTInstrumentedHandler extends HandlerWrapper {
 
     private AsyncListener listener;
 
+    private final List<RequestListener> requestListeners = new CopyOnWriteArrayList<>();
+
     /**
      * Create a new instrumented handler using a given metrics registry.
      *
@@ -104,8 +121,20 @@ public class OTInstrumentedHandler extends HandlerWrapper {
      * @param prefix   the prefix to use for the metrics names
      */
     public OTInstrumentedHandler(MetricRegistry registry, String prefix) {
+        this(registry, prefix, ConcurrencyTracker.sharedScheduler());
+    }
+
+    /**
+     * Create a new instrumented handler using a given metrics registry.
+     *
+     * @param registry  the registry for the metrics
+     * @param prefix    the prefix to use for the metrics names
+     * @param scheduler rolls the concurrency windows; owned by the caller, which shuts it down
+     */
+    public OTInstrumentedHandler(MetricRegistry registry, String prefix, ScheduledExecutorService scheduler) {
         this.metricRegistry = registry;
         this.prefix = prefix;
+        this.scheduler = scheduler;
     }
 
     public String getName() {
@@ -116,6 +145,24 @@ public class OTInstrumentedHandler extends HandlerWrapper {
         this.name = name;
     }
 
+    /**
+     * Register a listener to be told about every completed request, with the same elapsed time that goes into
+     * the request timers.
+     *
+     * @param requestListener the listener to add
+     */
+    public void addRequestListener(RequestListener requestListener) {
+        requestListeners.add(requestListener);
+    }
+
+    /**
+     * @return the number of requests currently in flight through this handler, or zero if not yet started
+     */
+    public long getActiveRequestCount() {
+        final Counter active = activeRequests;
+        return active == null ? 0 : active.getCount();
+    }
+
     @Override
     protected void doStart() throws Exception {
         super.doStart();
@@ -124,10 +171,14 @@ public class OTInstrumentedHandler extends HandlerWrapper {
 
         this.requests = metricRegistry.timer(name(prefix, "requests"));
         this.dispatches = metricRegistry.timer(name(prefix, "dispatches"));
+        this.onThreadTime = metricRegistry.timer(name(prefix, "on-thread-time"));
+        this.suspendedTime = metricRegistry.timer(name(prefix, "suspended-time"));
 
         this.activeRequests = metricRegistry.counter(name(prefix, "active-requests"));
         this.activeDispatches = metricRegistry.counter(name(prefix, "active-dispatches"));
         this.activeSuspended = metricRegistry.counter(name(prefix, "active-suspended"));
+        concurrency.register(metricRegistry, name(prefix, "concurrency"));
+        concurrency.start(scheduler);
 
         this.asyncDispatches = metricRegistry.meter(name(prefix, "async-dispatches"));
         this.asyncTimeouts = metricRegistry.meter(name(prefix, "async-timeouts"));
@@ -225,6 +276,15 @@ public class OTInstrumentedHandler extends HandlerWrapper {
                 final Request request = state.getBaseRequest();
                 final long elapsed = System.currentTimeMillis() - request.getTimeStamp();
 
+                final AsyncTimes times = (AsyncTimes) request.getAttribute(ASYNC_TIMES_ATTRIBUTE);
+                if (times != null) {
+                    request.removeAttribute(ASYNC_TIMES_ATTRIBUTE);
+                    // Completed while suspended, rather than from within a dispatch
+                    times.suspendedNanos += Math.max(0, System.nanoTime() - times.lastDispatchEnd);
+                    onThreadTime.update(times.onThreadNanos, TimeUnit.NANOSECONDS);
+                    suspendedTime.update(times.suspendedNanos, TimeUnit.NANOSECONDS);
+                }
+
                 updateResponses(request, elapsed);
 
                 activeSuspended.dec();
@@ -233,6 +293,12 @@ public class OTInstrumentedHandler extends HandlerWrapper {
         };
     }
 
+    @Override
+    protected void doStop() throws Exception {
+        concurrency.stop();
+        super.doStop();
+    }
+
     /**
      * Jetty processes new requests and resumed (previously suspended) requests by the following logic:
      *
@@ -250,6 +316,10 @@ public class OTInstrumentedHandler extends HandlerWrapper {
      *   (isSuspended() == false && isInitial() == true) will trigger the update of response metrics in-line.
      * - Previously suspended requests that finally got completely handled (isSuspended() == true && isInitial() == false)
      *   will be picked up by the attached AsyncListener's onComplete method, and trigger the update of response metrics.
+     *
+     * Time actually spent in the handler is summed across all dispatches of a request into {@code on-thread-time};
+     * for asynchronous requests the gaps between (and after) dispatches go into {@code suspended-time}. That
+     * separates requests that are slow because they burn a thread from ones that are slow waiting on something else.
      */
     @Override
     public void handle(String path,
@@ -264,23 +334,30 @@ public class OTInstrumentedHandler extends HandlerWrapper {
         if (state.isInitial()) {
             // New request
             activeRequests.inc();
+            concurrency.increment();
             start = request.getTimeStamp();
             // Diff: Removed calling state.addListener(listener)
         }
         else {
             // Resumed request
             start = System.currentTimeMillis();
+            final AsyncTimes times = (AsyncTimes) request.getAttribute(ASYNC_TIMES_ATTRIBUTE);
+            if (times != null) {
+                times.suspendedNanos += System.nanoTime() - times.lastDispatchEnd;
+            }
             // Diff: removed decrementing activeSuspended
             // Diff: Removed conditional around call to mark asyncDispatches
             asyncDispatches.mark();
         }
 
+        final long dispatchStart = System.nanoTime();
         try {
             super.handle(path, request, httpRequest, httpResponse);
         }
         finally {
             final long now = System.currentTimeMillis();
             final long dispatched = now - start;
+            final long dispatchEnd = System.nanoTime();
 
             activeDispatches.dec();
             dispatches.update(dispatched, TimeUnit.MILLISECONDS);
@@ -297,9 +374,20 @@ public class OTInstrumentedHandler extends HandlerWrapper {
             }
             else if (state.isInitial()) {
                 // New request that completed and was not previously suspended
-                 updateResponses(request, dispatched);
+                onThreadTime.update(dispatchEnd - dispatchStart, TimeUnit.NANOSECONDS);
+                updateResponses(request, dispatched);
             }
             // Resumed request that finally completed; handled by listener#onComplete method
+
+            if (state.isSuspended() || !state.isInitial()) {
+                AsyncTimes times = (AsyncTimes) request.getAttribute(ASYNC_TIMES_ATTRIBUTE);
+                if (times == null) {
+                    times = new AsyncTimes();
+                    request.setAttribute(ASYNC_TIMES_ATTRIBUTE, times);
+                }
+                times.onThreadNanos += dispatchEnd - dispatchStart;
+                times.lastDispatchEnd = dispatchEnd;
+            }
         }
     }
 
@@ -347,9 +435,37 @@ public class OTInstrumentedHandler extends HandlerWrapper {
         }
 
         activeRequests.dec();
+        concurrency.decrement();
 
         // Diff: Changed method to pass in elapsed time instead of calculating it here with an incorrect start time
         requests.update(elapsed, TimeUnit.MILLISECONDS);
         requestTimer(request.getMethod()).update(elapsed, TimeUnit.MILLISECONDS);
+
+        for (final RequestListener requestListener : requestListeners) {
+            requestListener.onRequestComplete(request, elapsed);
+        }
+    }
+
+    /**
+     * Per-request accumulator for asynchronous requests. Only ever touched by whichever thread currently owns
+     * the request, and Jetty's dispatch hand-off orders those.
+     */
+    private static final class AsyncTimes {
+        private long onThreadNanos;
+        private long suspendedNanos;
+        private long lastDispatchEnd;
+    }
+
+    /**
+     * Notified once per request when it completes, whether synchronously or after being suspended.
+     * Called on the request thread, so implementations must be cheap.
+     */
+    @FunctionalInterface
+    public interface RequestListener {
+        /**
+         * @param request the completed request
+         * @param elapsedMillis the total time the request took, in milliseconds
+         */
+        void onRequestComplete(Request request, long elapsedMillis);
     }
 }
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.LockFreeExponentiallyDecayingReservoir;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.Request;
+
+/**
+ * Times requests from the moment the job that read them was submitted to the request pool, i.e. from when the
+ * selector saw the connection readable, to handler dispatch, as {@code pre-dispatch-delay}. That covers the wait
+ * for a pool thread, header parsing and request customizers: what a request sits through before any handler runs.
+ * It climbs as the pool saturates; the pool's {@code queue-wait} shows the same wait per job rather than per request.
+ *
+ * <p>
+ * The submit time comes from {@link JobMetrics#currentJobSubmitNanos()} on the thread parsing the request. When
+ * there's none, because the read ran on a selector or reserved thread without being queued, there was no wait
+ * either, and we time from header parse instead. Requests pipelined on one HTTP/1 read share its submit time.
+ *
+ * <p>
+ * Times are {@link System#nanoTime()}, not {@link Request#getTimeStamp()}, which is wall clock milliseconds. Must be
+ * added as a bean on the connectors, see {@link JettyServerMetricsConfiguration#statusReporter}.
+ */
+class PreDispatchDelay implements HttpChannel.Listener {
+    private static final String BEGIN_ATTRIBUTE = PreDispatchDelay.class.getName() + ".begin";
+
+    private final Timer delay;
+
+    /**
+     * Create a pre-dispatch delay timer.
+     * @param registry the registry for the metrics
+     * @param prefix the prefix to use for the metrics names
+     */
+    PreDispatchDelay(MetricRegistry registry, String prefix) {
+        this.delay = registry.timer(name(prefix, "pre-dispatch-delay"),
+                () -> new Timer(LockFreeExponentiallyDecayingReservoir.builder().build()));
+    }
+
+    @Override
+    public void onRequestBegin(Request request) {
+        final long submitted = JobMetrics.currentJobSubmitNanos();
+        request.setAttribute(BEGIN_ATTRIBUTE, submitted < 0 ? System.nanoTime() : submitted);
+    }
+
+    @Override
+    public void onBeforeDispatch(Request request) {
+        // Only there for the initial dispatch, not async redispatches
+        final Object begin = request.getAttribute(BEGIN_ATTRIBUTE);
+        if (begin != null) {
+            request.removeAttribute(BEGIN_ATTRIBUTE);
+            delay.update(System.nanoTime() - (Long) begin, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import org.eclipse.jetty.server.Request;
+
+import com.opentable.httpheaders.OTHeaders;
+
+/**
+ * Request timers and error meters per referring service, so that you can tell which caller is seeing the errors
+ * (or sending the slow requests). Registered as a {@link OTInstrumentedHandler.RequestListener}; see
+ * "ot.httpserver.referring-service-tracking" in {@link JettyServerMetricsConfiguration}.
+ *
+ * <p>
+ * Only an allow-list of services gets its own metrics, anything else (including requests without the header)
+ * goes to a single {@value #UNKNOWN} bucket, so a misbehaving client can't blow up the number of metrics.
+ * All metrics are looked up once, up front; per request it's a single hash lookup.
+ */
+class ReferringServiceMetrics implements OTInstrumentedHandler.RequestListener {
+    static final String UNKNOWN = "unknown";
+
+    private final Map<String, ServiceMetrics> services = new HashMap<>();
+    private final ServiceMetrics unknown;
+
+    /**
+     * Create per referring service metrics.
+     *
+     * @param registry the registry for the metrics
+     * @param prefix the prefix to use for the metrics names
+     * @param trackedServices the referring services to track individually
+     */
+    ReferringServiceMetrics(MetricRegistry registry, String prefix, Collection<String> trackedServices) {
+        final String servicePrefix = name(prefix, "referring-service");
+        for (final String service : trackedServices) {
+            services.put(service, new ServiceMetrics(registry, name(servicePrefix, sanitize(service))));
+        }
+        this.unknown = new ServiceMetrics(registry, name(servicePrefix, UNKNOWN));
+    }
+
+    @Override
+    public void onRequestComplete(Request request, long elapsedMillis) {
+        final String service = request.getHeader(OTHeaders.REFERRING_SERVICE);
+        final ServiceMetrics metrics = service == null ? unknown : services.getOrDefault(service, unknown);
+        // Same as OTInstrumentedHandler: unhandled requests end up as a 404
+        final int status = request.isHandled() ? request.getResponse().getStatus() : 404;
+        metrics.requests.update(elapsedMillis, TimeUnit.MILLISECONDS);
+        if (status >= 500) {
+            metrics.serverErrors.mark();
+        } else if (status >= 400) {
+            metrics.clientErrors.mark();
+        }
+    }
+
+    // Dots would add levels to the Graphite tree
+    private static String sanitize(String service) {
+        return service.replace('.', '_');
+    }
+
+    private static final class ServiceMetrics {
+        private final Timer requests;
+        private final Meter clientErrors;
+        private final Meter serverErrors;
+
+        ServiceMetrics(MetricRegistry registry, String prefix) {
+            this.requests = registry.timer(name(prefix, "requests"));
+            this.clientErrors = registry.meter(name(prefix, "4xx-responses"));
+            this.serverErrors = registry.meter(name(prefix, "5xx-responses"));
+        }
+    }
+}
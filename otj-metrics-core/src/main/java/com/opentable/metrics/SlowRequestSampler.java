@@ -0,0 +1,342 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import org.eclipse.jetty.server.Request;
+
+import com.opentable.httpheaders.OTHeaders;
+
+/**
+ * Keeps the N slowest requests of each reporting interval, so that when the request timers say p99 went up
+ * you can see which requests it actually was.
+ *
+ * <p>
+ * Registered as a {@link OTInstrumentedHandler.RequestListener}, so it sees the same elapsed time as the request
+ * timers. Requests no slower than the current Nth slowest cost a single volatile read: nothing is allocated and
+ * no request data is looked at. Slower ones claim a slot with a CAS on a fixed size array, so the sampler never
+ * blocks a request thread. Paths are normalized (numeric and id-like segments become {@code {id}}) so that the
+ * output can be read, and shared, without leaking every customer id.
+ *
+ * <p>
+ * Intervals roll over lazily, on the first request or read after they end; {@link #getLastInterval()} returns the
+ * most recently completed one.
+ */
+public class SlowRequestSampler implements OTInstrumentedHandler.RequestListener {
+    private static final int MAX_PATH_LENGTH = 200;
+    private static final String ID_SEGMENT = "{id}";
+    private static final int MIN_HEX_ID_LENGTH = 8;
+
+    private final int size;
+    private final long intervalMillis;
+    private final Clock clock;
+
+    private final AtomicReference<Interval> current;
+    private volatile Interval last;
+
+    /**
+     * Create a slow request sampler.
+     *
+     * @param size how many requests to keep per interval
+     * @param interval the length of each interval; usually the reporting period
+     */
+    public SlowRequestSampler(int size, Duration interval) {
+        this(size, interval, Clock.systemUTC());
+    }
+
+    @VisibleForTesting
+    SlowRequestSampler(int size, Duration interval, Clock clock) {
+        Preconditions.checkArgument(size > 0, "size %s must be positive", size);
+        Preconditions.checkArgument(!interval.isNegative() && !interval.isZero(), "interval %s must be positive", interval);
+        this.size = size;
+        this.intervalMillis = interval.toMillis();
+        this.clock = clock;
+        this.current = new AtomicReference<>(new Interval(clock.millis(), intervalMillis, size));
+    }
+
+    @Override
+    public void onRequestComplete(Request request, long elapsedMillis) {
+        // Saves reading the clock: this is when the request completed
+        final long now = request.getTimeStamp() + elapsedMillis;
+        final Interval interval = intervalAt(now);
+        if (elapsedMillis <= interval.getThreshold()) {
+            return;
+        }
+        interval.offer(new Sample(
+                request.getMethod(),
+                normalizePath(request.getRequestURI()),
+                request.isHandled() ? request.getResponse().getStatus() : 404,
+                elapsedMillis,
+                request.getHeader(OTHeaders.REFERRING_SERVICE),
+                now));
+    }
+
+    /**
+     * @return the slowest requests of the most recently completed interval, or an empty snapshot if none has
+     * completed yet
+     */
+    public Snapshot getLastInterval() {
+        intervalAt(clock.millis());
+        final Interval interval = last;
+        return interval == null ? new Snapshot(0, 0, new ArrayList<>()) : interval.snapshot();
+    }
+
+    /**
+     * @return the slowest requests so far in the current interval
+     */
+    public Snapshot getCurrentInterval() {
+        return intervalAt(clock.millis()).snapshot();
+    }
+
+    /**
+     * @return how many requests are kept per interval
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @VisibleForTesting
+    Interval intervalAt(long nowMillis) {
+        while (true) {
+            final Interval interval = current.get();
+            if (nowMillis < interval.end) {
+                return interval;
+            }
+            final Interval next = new Interval(nowMillis, intervalMillis, size);
+            if (current.compareAndSet(interval, next)) {
+                last = interval;
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Collapse the parts of a path that vary per entity, so that slow requests group by endpoint.
+     * A segment is treated as an id if it is all digits, or at least {@value #MIN_HEX_ID_LENGTH} characters of
+     * hex digits and dashes with at least one digit (which covers UUIDs).
+     *
+     * @param path the request path, without query string
+     * @return the normalized path
+     */
+    static String normalizePath(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        final StringBuilder result = new StringBuilder(Math.min(path.length(), MAX_PATH_LENGTH));
+        int start = 0;
+        while (start <= path.length() && result.length() < MAX_PATH_LENGTH) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (start > 0) {
+                result.append('/');
+            }
+            if (isId(path, start, end)) {
+                result.append(ID_SEGMENT);
+            } else {
+                result.append(path, start, end);
+            }
+            start = end + 1;
+        }
+        if (result.length() > MAX_PATH_LENGTH) {
+            result.setLength(MAX_PATH_LENGTH);
+        }
+        return result.toString();
+    }
+
+    private static boolean isId(String path, int start, int end) {
+        if (start == end) {
+            return false;
+        }
+        boolean allDigits = true;
+        boolean anyDigit = false;
+        for (int i = start; i < end; i++) {
+            final char c = path.charAt(i);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+            } else if ((c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '-') {
+                allDigits = false;
+            } else {
+                return false;
+            }
+        }
+        return allDigits || (anyDigit && end - start >= MIN_HEX_ID_LENGTH);
+    }
+
+    /**
+     * The top-N of a single interval.
+     */
+    @VisibleForTesting
+    static class Interval {
+        private final long start;
+        private final long end;
+        private final AtomicReferenceArray<Sample> slots;
+        // Only ever rises, and never above the duration of the fastest kept sample; -1 while slots are free
+        private final AtomicLong threshold = new AtomicLong(-1);
+
+        Interval(long start, long length, int size) {
+            this.start = start;
+            this.end = start + length;
+            this.slots = new AtomicReferenceArray<>(size);
+        }
+
+        /**
+         * @return requests no slower than this, in milliseconds, would not make the cut
+         */
+        long getThreshold() {
+            return threshold.get();
+        }
+
+        void offer(Sample sample) {
+            while (true) {
+                int victim = -1;
+                Sample victimSample = null;
+                for (int i = 0; i < slots.length(); i++) {
+                    final Sample slot = slots.get(i);
+                    if (slot == null) {
+                        victim = i;
+                        victimSample = null;
+                        break;
+                    }
+                    if (victimSample == null || slot.durationMillis < victimSample.durationMillis) {
+                        victim = i;
+                        victimSample = slot;
+                    }
+                }
+                if (victimSample != null && sample.durationMillis <= victimSample.durationMillis) {
+                    // Others got in first with slower requests
+                    return;
+                }
+                if (slots.compareAndSet(victim, victimSample, sample)) {
+                    updateThreshold();
+                    return;
+                }
+            }
+        }
+
+        private void updateThreshold() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < slots.length(); i++) {
+                final Sample slot = slots.get(i);
+                if (slot == null) {
+                    return;
+                }
+                min = Math.min(min, slot.durationMillis);
+            }
+            threshold.accumulateAndGet(min, Math::max);
+        }
+
+        Snapshot snapshot() {
+            final List<Sample> samples = new ArrayList<>(slots.length());
+            for (int i = 0; i < slots.length(); i++) {
+                final Sample slot = slots.get(i);
+                if (slot != null) {
+                    samples.add(slot);
+                }
+            }
+            samples.sort(Comparator.comparingLong(Sample::getDurationMillis).reversed());
+            return new Snapshot(start, end, samples);
+        }
+    }
+
+    /**
+     * The slowest requests of one interval, slowest first.
+     */
+    public static class Snapshot {
+        private final Instant start;
+        private final Instant end;
+        private final List<Sample> requests;
+
+        Snapshot(long startMillis, long endMillis, List<Sample> requests) {
+            this.start = Instant.ofEpochMilli(startMillis);
+            this.end = Instant.ofEpochMilli(endMillis);
+            this.requests = requests;
+        }
+
+        public Instant getStart() {
+            return start;
+        }
+
+        public Instant getEnd() {
+            return end;
+        }
+
+        public List<Sample> getRequests() {
+            return requests;
+        }
+    }
+
+    /**
+     * A single slow request.
+     */
+    public static class Sample {
+        private final String method;
+        private final String path;
+        private final int status;
+        private final long durationMillis;
+        private final String referringService;
+        private final long completedMillis;
+
+        Sample(String method, String path, int status, long durationMillis, String referringService, long completedMillis) {
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.durationMillis = durationMillis;
+            this.referringService = referringService;
+            this.completedMillis = completedMillis;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public String getReferringService() {
+            return referringService;
+        }
+
+        public Instant getCompleted() {
+            return Instant.ofEpochMilli(completedMillis);
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + path + " " + status + " " + durationMillis + "ms from " + referringService;
+        }
+    }
+}
@@ -13,8 +13,19 @@
  */
 package com.opentable.metrics;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.LockFreeExponentiallyDecayingReservoir;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 
+import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.RequestLog;
 import org.eclipse.jetty.server.Response;
@@ -23,12 +34,27 @@ import org.eclipse.jetty.server.Response;
  * Jetty {@link RequestLog} wrapper that determines the HTTP status code
  * and reports it as a metric.  The built-in stuff gives you e.g. {@code 2xx-responses}
  * but we want to have it for each individual status to improve monitoring.
+ *
+ * <p>
+ * Since the request log sees every completed exchange, it also records payload sizes from what Jetty already
+ * knows about the request and response, without wrapping any streams: {@code request-bytes} is the request content
+ * the channel actually received (so chunked uploads, which declare no length, count too), {@code response-bytes}
+ * what it actually wrote, and {@code bytes-in}/{@code bytes-out} the running totals of each. The same bytes are also
+ * marked per request method, on {@code <method>.bytes-in}/{@code <method>.bytes-out} meters (e.g.
+ * {@code post.bytes-in}), whose rates are the bandwidth each method takes; methods Jetty doesn't know are
+ * {@code other}, so junk requests can't create metrics.
  */
 class StatusCodeMetrics implements RequestLog {
 
     private final RequestLog wrapped;
     private final MetricRegistry registry;
     private final String prefix;
+    private final Histogram requestBytes;
+    private final Histogram responseBytes;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+    /** method name &rarr; its bandwidth meters */
+    private final ConcurrentMap<String, MethodBytes> byMethod = new ConcurrentHashMap<>();
 
     /**
      * Create a StatusCodeMetrics wrapper of the given RequestLog to report metric for each HTTP response status
@@ -41,14 +67,49 @@ class StatusCodeMetrics implements RequestLog {
         this.wrapped = wrapped;
         this.registry = registry;
         this.prefix = prefix;
+        this.requestBytes = registry.histogram(name(prefix, "request-bytes"), StatusCodeMetrics::lockFreeHistogram);
+        this.responseBytes = registry.histogram(name(prefix, "response-bytes"), StatusCodeMetrics::lockFreeHistogram);
+        this.bytesIn = registry.counter(name(prefix, "bytes-in"));
+        this.bytesOut = registry.counter(name(prefix, "bytes-out"));
     }
 
     @Override
     public void log(Request request, Response response) {
         final int status = response.getCommittedMetaData().getStatus();
         registry.meter(prefix + '.' + status + "-responses").mark();
+
+        final long received = request.getHttpInput().getContentReceived();
+        requestBytes.update(received);
+        bytesIn.inc(received);
+        final long written = response.getHttpChannel().getBytesWritten();
+        responseBytes.update(written);
+        bytesOut.inc(written);
+        final MethodBytes method = byMethod.computeIfAbsent(methodName(request.getMethod()), MethodBytes::new);
+        method.in.mark(received);
+        method.out.mark(written);
+
         if (wrapped != null) {
             wrapped.log(request, response);
         }
     }
+
+    private static String methodName(String method) {
+        final HttpMethod known = method == null ? null : HttpMethod.fromString(method);
+        return known == null ? "other" : known.asString().toLowerCase(Locale.ROOT);
+    }
+
+    // Updated on every request, so avoid the default reservoir's lock
+    private static Histogram lockFreeHistogram() {
+        return new Histogram(LockFreeExponentiallyDecayingReservoir.builder().build());
+    }
+
+    private final class MethodBytes {
+        private final Meter in;
+        private final Meter out;
+
+        MethodBytes(String method) {
+            this.in = registry.meter(name(prefix, method, "bytes-in"));
+            this.out = registry.meter(name(prefix, method, "bytes-out"));
+        }
+    }
 }
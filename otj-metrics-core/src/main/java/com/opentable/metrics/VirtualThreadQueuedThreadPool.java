@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.util.thread.Invocable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Request pool that runs request handling on virtual threads (JDK 21+), for I/O bound services.
+ *
+ * <p>
+ * Jetty's own long-lived jobs&mdash;selectors, acceptors, reserved threads&mdash;stay on the pool's platform
+ * threads; only jobs that Jetty marks as potentially blocking (request handling and async redispatch) and hands to
+ * {@link #execute(Runnable)} get a virtual thread each. Not every request goes that way: a job Jetty passes to a
+ * reserved thread through {@code tryExecute}, or runs itself under its produce-consume execution strategy, still
+ * runs on a platform thread. Jobs that do get a virtual thread are recorded in the same {@link JobMetrics} as the
+ * platform pool, so {@code submitted-jobs}, {@code active-jobs}, {@code queue-wait} and {@code job-duration} line
+ * up on the same dashboards whichever pool a service runs. Pinned virtual threads are reported by
+ * {@link com.opentable.metrics.jvm.JfrMetrics}, as {@code jvm.jfr.virtual-thread-pinned}, so only with
+ * {@code ot.metrics.jfr.enabled} set.
+ *
+ * <p>
+ * Request jobs on virtual threads never wait in the pool's queue, so it stays empty and
+ * {@link #getQueueWaitNanos()} is 0: load shedding on queue wait ({@link LoadSheddingHandler}'s
+ * {@code max-queue-wait}) never triggers with this pool. Shed on active requests instead.
+ *
+ * <p>
+ * Virtual threads are looked up reflectively so that this compiles for older targets;
+ * check {@link #isSupported()} first. Should that lookup fail anyway, the pool logs it and runs everything on its
+ * platform threads.
+ */
+class VirtualThreadQueuedThreadPool extends JettyServerMetricsConfiguration.OTQueuedThreadPool {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadQueuedThreadPool.class);
+
+    private final ExecutorFactory executorFactory;
+    private volatile ExecutorService virtualExecutor;
+
+    /**
+     * Create a virtual thread request pool.
+     *
+     * @param metricRegistry the metric registry used to record metrics on pool utilization
+     * @param qSize ignored, as in {@link JettyServerMetricsConfiguration.OTQueuedThreadPool}
+     */
+    VirtualThreadQueuedThreadPool(MetricRegistry metricRegistry, int qSize) {
+        this(metricRegistry, qSize, VirtualThreadQueuedThreadPool::newVirtualThreadExecutor);
+    }
+
+    @VisibleForTesting
+    VirtualThreadQueuedThreadPool(MetricRegistry metricRegistry, int qSize, ExecutorFactory executorFactory) {
+        super(metricRegistry, qSize);
+        this.executorFactory = executorFactory;
+    }
+
+    /**
+     * @return whether this JVM has virtual threads
+     */
+    static boolean isSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        try {
+            virtualExecutor = executorFactory.create(getName() + "-virtual-");
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOG.warn("Couldn't create virtual threads for {}; running requests on its platform threads", getName(), e);
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        final ExecutorService executor = virtualExecutor;
+        if (executor != null) {
+            virtualExecutor = null;
+            executor.shutdown();
+            if (!executor.awaitTermination(getStopTimeout(), TimeUnit.MILLISECONDS)) {
+                LOG.warn("{} virtual threads did not finish within {}ms", getName(), getStopTimeout());
+            }
+        }
+        super.doStop();
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        final ExecutorService executor = virtualExecutor;
+        final JobMetrics metrics = getJobMetrics();
+        if (executor == null || metrics == null || !isRequestJob(job)) {
+            super.execute(job);
+            return;
+        }
+        executor.execute(metrics.wrap(job));
+    }
+
+    /**
+     * Jetty tags tasks that may call application code as blocking {@link Invocable}s; the infrastructure jobs
+     * that live as long as the server (selector producers, acceptors, reserved threads) are plain runnables.
+     */
+    @VisibleForTesting
+    static boolean isRequestJob(Runnable job) {
+        return job instanceof HttpChannel
+                || (job instanceof Invocable && Invocable.getInvocationType(job) == Invocable.InvocationType.BLOCKING);
+    }
+
+    @FunctionalInterface
+    interface ExecutorFactory {
+        /**
+         * @param namePrefix prefix for the names of the threads
+         * @return an executor running each job on a new virtual thread
+         * @throws ReflectiveOperationException if virtual threads aren't there after all
+         */
+        ExecutorService create(String namePrefix) throws ReflectiveOperationException;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor(String namePrefix) throws ReflectiveOperationException {
+        // Thread.ofVirtual().name(namePrefix, 0).factory(), then Executors.newThreadPerTaskExecutor(factory)
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        builder = Class.forName("java.lang.Thread$Builder$OfVirtual")
+                .getMethod("name", String.class, long.class)
+                .invoke(builder, namePrefix, 0L);
+        final ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                .getMethod("factory")
+                .invoke(builder);
+        return (ExecutorService) Executors.class
+                .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                .invoke(null, factory);
+    }
+}
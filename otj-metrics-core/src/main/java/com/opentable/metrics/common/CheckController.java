@@ -31,6 +31,7 @@ import javax.annotation.PreDestroy;
 
 import com.google.common.collect.Maps;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
@@ -44,7 +45,8 @@ import com.opentable.spring.PropertySourceUtil;
  * @param <T> Health.Result or Ready.Result
  */
 public abstract class CheckController<T> {
-    protected static final String WARN_PREFIX = "WARN: ";
+    /** Failing checks whose message starts with this (ignoring case) are reported as {@code WARNING}. */
+    public static final String WARN_PREFIX = "WARN: ";
     protected final Map<String, Set<String>> groups = new HashMap<>();
     protected final ExecutorService executor;
     protected final ApplicationEventPublisher publisher;
@@ -91,6 +93,23 @@ public abstract class CheckController<T> {
     }
 
     protected abstract CheckState resultToState(T r);
+
+    /**
+     * The state of one check result, the same for ready and health checks.
+     * @param passed whether the check is ready or healthy
+     * @param message the result's message
+     * @return {@code HEALTHY} if passed, else {@code WARNING} if the message starts with {@link #WARN_PREFIX}, else
+     * {@code CRITICAL}
+     */
+    protected static CheckState checkState(boolean passed, String message) {
+        if (passed) {
+            return CheckState.HEALTHY;
+        }
+        if (StringUtils.startsWithIgnoreCase(message, WARN_PREFIX)) {
+            return CheckState.WARNING;
+        }
+        return CheckState.CRITICAL;
+    }
     protected abstract SortedMap<String, T> getCheckResults();
 
     protected void publish(boolean checkPasses) {
@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.common;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.PropertyResolver;
+
+/**
+ * Runs ready or health checks in parallel with deadlines, so that one hung check can't hold up the probe, and the
+ * thread serving it, forever.
+ *
+ * <p>
+ * Each check has its own timeout, and all share a total one, both counted from the start of the run; null means no
+ * limit. A check that times out is reported as failed, "timed out after" its timeout, and marks the
+ * {@code <prefix>.<check name>.timeouts} meter. It's left to finish in the background; until it does, later runs wait
+ * on that same execution rather than submitting the check again.
+ * @param <T> Ready.Result or HealthCheck.Result
+ */
+public class TimedChecks<T> {
+    public static final Duration DEFAULT_CHECK_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_TOTAL_TIMEOUT = Duration.ofSeconds(15);
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimedChecks.class);
+
+    private final MetricRegistry metrics;
+    private final String metricPrefix;
+    private final Function<String, Duration> checkTimeouts;
+    private final Duration totalTimeout;
+    private final Function<Duration, T> timedOut;
+    private final Function<Throwable, T> failed;
+    /** check name &rarr; its last execution, until we've seen it finish */
+    private final ConcurrentMap<String, Future<T>> running = new ConcurrentHashMap<>();
+
+    /**
+     * @param metrics registry for the timeout meters, or null for none
+     * @param metricPrefix prefix for the timeout meter names
+     * @param checkTimeouts check name &rarr; its timeout, or null for no limit
+     * @param totalTimeout limit for all checks, or null for none
+     * @param timedOut makes the result of a check that timed out after the given time
+     * @param failed makes the result of a check that threw
+     */
+    public TimedChecks(MetricRegistry metrics, String metricPrefix, Function<String, Duration> checkTimeouts,
+                       Duration totalTimeout, Function<Duration, T> timedOut, Function<Throwable, T> failed) {
+        this.metrics = metrics;
+        this.metricPrefix = metricPrefix;
+        this.checkTimeouts = checkTimeouts;
+        this.totalTimeout = totalTimeout;
+        this.timedOut = timedOut;
+        this.failed = failed;
+    }
+
+    /**
+     * Per check timeouts from configuration: {@code <configPrefix>timeout.<check name>} for that check, else
+     * {@code <configPrefix>check-timeout}, else {@link #DEFAULT_CHECK_TIMEOUT}.
+     * @param env the configuration
+     * @param configPrefix e.g. {@code ot.metrics.ready.}
+     * @return check name &rarr; its timeout
+     */
+    public static Function<String, Duration> checkTimeouts(PropertyResolver env, String configPrefix) {
+        final Duration defaultTimeout = duration(env, configPrefix + "check-timeout", DEFAULT_CHECK_TIMEOUT);
+        return name -> duration(env, configPrefix + "timeout." + name, defaultTimeout);
+    }
+
+    /**
+     * @param env the configuration
+     * @param configPrefix e.g. {@code ot.metrics.ready.}
+     * @return {@code <configPrefix>total-timeout}, else {@link #DEFAULT_TOTAL_TIMEOUT}
+     */
+    public static Duration totalTimeout(PropertyResolver env, String configPrefix) {
+        return duration(env, configPrefix + "total-timeout", DEFAULT_TOTAL_TIMEOUT);
+    }
+
+    private static Duration duration(PropertyResolver env, String key, Duration defaultValue) {
+        final String value = env.getProperty(key);
+        return value == null ? defaultValue : Duration.parse(value);
+    }
+
+    /**
+     * Run the checks, and wait for them up to their timeouts.
+     * @param executor to run the checks on
+     * @param checks check name &rarr; the check
+     * @return check name &rarr; its result
+     */
+    public SortedMap<String, T> run(ExecutorService executor, Map<String, Callable<T>> checks) {
+        final long start = System.nanoTime();
+        final Map<String, Future<T>> futures = new HashMap<>();
+        checks.forEach((name, check) -> futures.put(name, submit(executor, name, check)));
+
+        final SortedMap<String, T> results = new TreeMap<>();
+        futures.forEach((name, future) -> {
+            final Duration timeout = timeout(name);
+            try {
+                if (timeout == null) {
+                    results.put(name, future.get());
+                } else {
+                    final long remaining = start + timeout.toNanos() - System.nanoTime();
+                    results.put(name, future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS));
+                }
+            } catch (TimeoutException e) {
+                LOG.warn("Check {} timed out after {}", name, timeout);
+                if (metrics != null) {
+                    metrics.meter(MetricRegistry.name(metricPrefix, name, "timeouts")).mark();
+                }
+                results.put(name, timedOut.apply(timeout));
+                // Still running, so leave it for the next run to pick up
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.put(name, failed.apply(e));
+                return;
+            } catch (ExecutionException e) {
+                LOG.warn("Error executing check {}", name, e.getCause());
+                results.put(name, failed.apply(e.getCause()));
+            } catch (RuntimeException e) {
+                LOG.warn("Error executing check {}", name, e);
+                results.put(name, failed.apply(e));
+            }
+            running.remove(name, future);
+        });
+        return Collections.unmodifiableSortedMap(results);
+    }
+
+    /**
+     * Decide and submit within {@code compute}, so that concurrent runs can't both submit the same check. With a
+     * caller-runs pool that's full, the check then runs inline while holding its entry in {@link #running}; that
+     * holds up concurrent runs of the same check, which would have waited on it anyway, and rarely of a check whose
+     * name shares its hash bin. Accepted, since it only happens once the check pool is already saturated.
+     */
+    private Future<T> submit(ExecutorService executor, String name, Callable<T> check) {
+        return running.compute(name, (n, previous) ->
+                previous != null && !previous.isDone() ? previous : executor.submit(check));
+    }
+
+    private Duration timeout(String name) {
+        final Duration check = checkTimeouts.apply(name);
+        if (check == null) {
+            return totalTimeout;
+        }
+        return totalTimeout == null || check.compareTo(totalTimeout) < 0 ? check : totalTimeout;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.health;
+
+import java.util.Locale;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by {@link GcOverheadMonitor} whenever the GC overhead level changes, e.g. for a load shedder to start
+ * turning away work before the JVM spirals into back to back collections.
+ */
+public class GcOverheadEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+
+    public enum Level {
+        OK,
+        WARN,
+        CRITICAL,
+    }
+
+    private final Level level;
+    private final double percent;
+
+    public GcOverheadEvent(final Object source, final Level level, final double percent) {
+        super(source);
+        this.level = level;
+        this.percent = percent;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return percent of the window spent in GC pauses
+     */
+    public double getPercent() {
+        return percent;
+    }
+
+    /**
+     * @return whether to shed load, i.e. overhead is critical
+     */
+    public boolean isOverloaded() {
+        return level == Level.CRITICAL;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "GcOverheadEvent[%s, %.1f%%]", level, percent);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.health;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.codahale.metrics.health.HealthCheck;
+
+import com.opentable.metrics.common.CheckController;
+import com.opentable.metrics.health.GcOverheadEvent.Level;
+
+/**
+ * Reports GC overhead, as classified by {@link GcOverheadMonitor}, as a warning once it passes either threshold.
+ * It never goes critical: restarting the pod loses its warm caches and JIT, and puts its load on the rest of the
+ * fleet, which is the spiral we'd like to avoid; readiness (see
+ * {@link com.opentable.metrics.ready.GcOverheadReadyCheck}) takes it out of rotation instead. The current percent
+ * is in the {@code percent} detail.
+ */
+@Named("gcOverheadHealthCheck")
+class GcOverheadHealthCheck extends HealthCheck {
+    static final String PERCENT_DETAIL = "percent";
+
+    private final GcOverheadMonitor monitor;
+
+    @Inject
+    GcOverheadHealthCheck(final GcOverheadMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    protected Result check() {
+        if (monitor.getLevel() == Level.OK) {
+            return Result.healthy();
+        }
+        return Result.builder()
+                .unhealthy()
+                .withMessage(CheckController.WARN_PREFIX + monitor.describeLevel())
+                .withDetail(PERCENT_DETAIL, monitor.getPercent())
+                .build();
+    }
+}
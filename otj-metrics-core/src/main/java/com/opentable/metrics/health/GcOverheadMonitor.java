@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.health;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+
+import com.opentable.metrics.health.GcOverheadEvent.Level;
+
+/**
+ * Watches the {@code jvm.gc-mem.overhead} gauge, the percent of a sliding window (see
+ * {@code ot.metrics.gc-overhead.window}) spent in GC pauses, and classifies it against {@code warn-percent}
+ * (default 10) and {@code critical-percent} (default 25). Off unless {@code ot.metrics.gc-overhead.enabled} is set.
+ *
+ * <p>
+ * Every {@link #REFRESH_PERIOD} it re-reads the gauge, and publishes a {@link GcOverheadEvent} when the level changes.
+ * {@link GcOverheadHealthCheck} and {@link com.opentable.metrics.ready.GcOverheadReadyCheck} report the last level,
+ * so probes don't add work to a JVM that's already struggling.
+ */
+@Named
+public class GcOverheadMonitor {
+    private static final Logger LOG = LoggerFactory.getLogger(GcOverheadMonitor.class);
+    private static final Duration REFRESH_PERIOD = Duration.ofSeconds(5);
+    // Registered by JvmMetricsConfiguration
+    private static final String OVERHEAD_GAUGE = "jvm.gc-mem.overhead";
+
+    private final MetricRegistry metrics;
+    private final ApplicationEventPublisher publisher;
+    private final boolean enabled;
+    private final double warnPercent;
+    private final double criticalPercent;
+
+    private final ScheduledExecutorService exec = Executors.newScheduledThreadPool(
+        1,
+        new ThreadFactoryBuilder()
+            .setNameFormat("gc-overhead-monitor-%d")
+            .setDaemon(true)
+            .build()
+    );
+
+    private volatile Level level = Level.OK;
+    private volatile double percent;
+
+    @Inject
+    public GcOverheadMonitor(final MetricRegistry metrics, final ApplicationEventPublisher publisher,
+                             @Value("${ot.metrics.gc-overhead.enabled:false}") final boolean enabled,
+                             @Value("${ot.metrics.gc-overhead.warn-percent:10}") final double warnPercent,
+                             @Value("${ot.metrics.gc-overhead.critical-percent:25}") final double criticalPercent) {
+        this.metrics = metrics;
+        this.publisher = publisher;
+        this.enabled = enabled;
+        this.warnPercent = warnPercent;
+        this.criticalPercent = criticalPercent;
+    }
+
+    @PostConstruct
+    void start() {
+        if (enabled) {
+            exec.scheduleAtFixedRate(this::poll, 0, REFRESH_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        exec.shutdownNow();
+    }
+
+    private void poll() {
+        try {
+            evaluate();
+        } catch (RuntimeException e) {
+            LOG.error("Error polling GC overhead", e);
+        }
+    }
+
+    @VisibleForTesting
+    void evaluate() {
+        final Metric gauge = metrics.getMetrics().get(OVERHEAD_GAUGE);
+        if (!(gauge instanceof Gauge)) {
+            return;
+        }
+        final Object value = ((Gauge<?>) gauge).getValue();
+        if (!(value instanceof Number)) {
+            return;
+        }
+        final double current = ((Number) value).doubleValue();
+        final Level previous = level;
+        final Level next;
+        if (current >= criticalPercent) {
+            next = Level.CRITICAL;
+        } else if (current >= warnPercent) {
+            next = Level.WARN;
+        } else {
+            next = Level.OK;
+        }
+        percent = current;
+        level = next;
+        if (next != previous) {
+            LOG.warn("GC overhead {} -> {}: {}", previous, next, describe());
+            publisher.publishEvent(new GcOverheadEvent(this, next, current));
+        }
+    }
+
+    /**
+     * @return the level as of the last poll; always {@code OK} while disabled
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return percent of the window spent in GC pauses, as of the last poll
+     */
+    public double getPercent() {
+        return percent;
+    }
+
+    /**
+     * @return the threshold the last poll crossed, for check messages; unlike the percent itself, this only changes
+     * with the level, so the check controllers don't log a new failure on every probe
+     */
+    public String describeLevel() {
+        switch (level) {
+            case CRITICAL:
+                return String.format(Locale.ROOT, "over %s%% of time in GC", criticalPercent);
+            case WARN:
+                return String.format(Locale.ROOT, "over %s%% of time in GC", warnPercent);
+            default:
+                return String.format(Locale.ROOT, "under %s%% of time in GC", warnPercent);
+        }
+    }
+
+    private String describe() {
+        return String.format(Locale.ROOT, "%.1f%% of time in GC (warn at %s%%, critical at %s%%)",
+                percent, warnPercent, criticalPercent);
+    }
+}
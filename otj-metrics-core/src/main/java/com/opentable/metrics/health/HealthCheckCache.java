@@ -0,0 +1,339 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.health;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.health.HealthCheck.Result;
+import com.codahale.metrics.health.HealthCheck.ResultBuilder;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+
+import com.opentable.metrics.common.TimedChecks;
+
+/**
+ * Serves health check results from a snapshot refreshed in the background, so that orchestration probes, load
+ * balancer checks and {@code /service-status} polling every pod many times a second don't each run every check, some
+ * of which (a database ping, say) aren't cheap. Off unless {@code ot.metrics.health.cache.enabled} is set; then:
+ * <ul>
+ *     <li>each check is run every {@code ot.metrics.health.cache.default-interval} (default 10 seconds), or every
+ *     {@code ot.metrics.health.cache.interval.<check name>} for that check, on the health check pool; a check still
+ *     running when it's next due isn't submitted again</li>
+ *     <li>results carry an {@value #AGE_DETAIL} detail: milliseconds since the check completed</li>
+ *     <li>a result older than {@code ot.metrics.health.cache.max-staleness} (default 1 minute), e.g. because its check
+ *     hangs, is reported as unhealthy instead; keep this comfortably above the intervals</li>
+ *     <li>a check with no result yet, i.e. just registered, is run on the health check pool too, and waited for
+ *     within the usual {@code ot.metrics.health.timeout.<check name>}, {@code check-timeout} and {@code total-timeout};
+ *     past those it's reported as unhealthy, "no result yet", until it completes</li>
+ * </ul>
+ * While off, every call runs the checks, as before.
+ */
+@Named
+public class HealthCheckCache {
+    public static final String AGE_DETAIL = "age-ms";
+
+    private static final Logger LOG = LoggerFactory.getLogger(HealthCheckCache.class);
+    private static final String INTERVAL_PREFIX = "ot.metrics.health.cache.interval.";
+    private static final String TIMEOUT_CONFIG_PREFIX = "ot.metrics.health.";
+    private static final Duration TICK = Duration.ofSeconds(1);
+
+    private final HealthCheckRegistry registry;
+    private final ExecutorService executor;
+    private final Environment env;
+    private final Clock clock;
+    private final boolean enabled;
+    private final Duration defaultInterval;
+    private final Duration maxStaleness;
+    private final Function<String, Duration> checkTimeouts;
+    private final Duration totalTimeout;
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+        1,
+        new ThreadFactoryBuilder()
+            .setNameFormat("health-check-refresh-%d")
+            .setDaemon(true)
+            .build()
+    );
+
+    /** check name &rarr; its last result; replaced whole on every update, so readers get a consistent snapshot */
+    private final AtomicReference<Map<String, Cached>> snapshot = new AtomicReference<>(Collections.emptyMap());
+    /** check name &rarr; its latest run, so that the scheduler and callers never have a check running twice */
+    private final ConcurrentMap<String, Future<Cached>> running = new ConcurrentHashMap<>();
+    private final Map<String, Duration> intervals = new ConcurrentHashMap<>();
+
+    @Inject
+    public HealthCheckCache(final HealthCheckRegistry registry,
+                            @Named(HealthConfiguration.HEALTH_CHECK_POOL_NAME) final ExecutorService executor,
+                            final Environment env,
+                            @Value("${ot.metrics.health.cache.enabled:false}") final boolean enabled,
+                            @Value("${ot.metrics.health.cache.default-interval:PT10S}") final Duration defaultInterval,
+                            @Value("${ot.metrics.health.cache.max-staleness:PT1M}") final Duration maxStaleness) {
+        this(registry, executor, env, Clock.defaultClock(), enabled, defaultInterval, maxStaleness);
+    }
+
+    @VisibleForTesting
+    HealthCheckCache(final HealthCheckRegistry registry, final ExecutorService executor, final Environment env,
+                     final Clock clock, final boolean enabled, final Duration defaultInterval,
+                     final Duration maxStaleness) {
+        this.registry = registry;
+        this.executor = executor;
+        this.env = env;
+        this.clock = clock;
+        this.enabled = enabled;
+        this.defaultInterval = defaultInterval;
+        this.maxStaleness = maxStaleness;
+        this.checkTimeouts = TimedChecks.checkTimeouts(env, TIMEOUT_CONFIG_PREFIX);
+        this.totalTimeout = TimedChecks.totalTimeout(env, TIMEOUT_CONFIG_PREFIX);
+    }
+
+    @PostConstruct
+    void start() {
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::poll, 0, TICK.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the latest result of every registered check; or, while off, fresh results, run on the health check pool
+     */
+    public SortedMap<String, Result> runHealthChecks() {
+        if (!enabled) {
+            return registry.runHealthChecks(executor);
+        }
+        final Map<String, Cached> current = snapshot.get();
+        final long now = clock.getTick();
+        final SortedMap<String, Result> results = new TreeMap<>();
+        final Set<String> uncached = new HashSet<>();
+        for (final String name : registry.getNames()) {
+            final Cached cached = current.get(name);
+            if (cached == null) {
+                uncached.add(name);
+            } else {
+                results.put(name, cached.toResult(now));
+            }
+        }
+        results.putAll(runFirst(uncached));
+        return Collections.unmodifiableSortedMap(results);
+    }
+
+    /**
+     * @param name the check's name
+     * @return its latest result; or, while off, a fresh one
+     * @throws NoSuchElementException if there's no such check
+     */
+    public Result runHealthCheck(final String name) {
+        if (!enabled) {
+            return registry.runHealthCheck(name);
+        }
+        final Cached cached = snapshot.get().get(name);
+        if (cached == null) {
+            final Result result = runFirst(Collections.singleton(name)).get(name);
+            if (result == null) {
+                throw new NoSuchElementException("No health check named " + name + " exists");
+            }
+            return result;
+        }
+        return cached.toResult(clock.getTick());
+    }
+
+    private void poll() {
+        try {
+            refreshDue();
+        } catch (RuntimeException e) {
+            LOG.error("Error refreshing health checks", e);
+        }
+    }
+
+    @VisibleForTesting
+    void refreshDue() {
+        final Map<String, Cached> current = snapshot.get();
+        final Set<String> names = registry.getNames();
+        if (!names.containsAll(current.keySet())) {
+            snapshot.updateAndGet(results -> without(results, names));
+        }
+        running.keySet().retainAll(names);
+        final long now = clock.getTick();
+        for (final String name : names) {
+            final Cached cached = current.get(name);
+            if (cached != null && now - cached.nanos < interval(name).toNanos()) {
+                continue;
+            }
+            try {
+                submit(name);
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Couldn't submit health check {}", name, e);
+            }
+        }
+    }
+
+    /**
+     * Run checks that have no result yet on the pool, and wait for them within their timeouts.
+     * @return check name &rarr; its result; checks since unregistered are left out
+     */
+    private Map<String, Result> runFirst(final Collection<String> names) {
+        final long start = System.nanoTime();
+        final Map<String, Result> results = new HashMap<>();
+        final Map<String, Future<Cached>> futures = new HashMap<>();
+        for (final String name : names) {
+            try {
+                futures.put(name, submit(name));
+            } catch (RejectedExecutionException e) {
+                LOG.warn("Couldn't submit health check {}", name, e);
+                results.put(name, Result.unhealthy(e));
+            }
+        }
+        futures.forEach((name, future) -> {
+            final Duration timeout = timeout(name);
+            try {
+                final long remaining = start + timeout.toNanos() - System.nanoTime();
+                final Cached cached = future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+                if (cached != null) {
+                    results.put(name, cached.toResult(cached.nanos));
+                }
+            } catch (TimeoutException e) {
+                LOG.warn("Health check {} has no result yet after {}", name, timeout);
+                results.put(name, Result.unhealthy("no result yet, timed out after %s", timeout));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                results.put(name, Result.unhealthy(e));
+            } catch (ExecutionException e) {
+                LOG.warn("Error executing health check {}", name, e.getCause());
+                results.put(name, Result.unhealthy(e.getCause()));
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Decide and submit within {@code compute}, so a check still running, e.g. hung, is waited on rather than piled up.
+     * @return the check's current run
+     * @throws RejectedExecutionException if the pool won't take it
+     */
+    private Future<Cached> submit(final String name) {
+        return running.compute(name, (n, previous) ->
+                previous != null && !previous.isDone() ? previous : executor.submit(() -> refresh(name)));
+    }
+
+    /**
+     * @return the new result, or null if the check has since been unregistered
+     */
+    private Cached refresh(final String name) {
+        final Result result;
+        try {
+            result = registry.runHealthCheck(name);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        final Cached cached = new Cached(result, clock.getTick());
+        snapshot.updateAndGet(results -> {
+            final Map<String, Cached> updated = new HashMap<>(results);
+            updated.put(name, cached);
+            return Collections.unmodifiableMap(updated);
+        });
+        return cached;
+    }
+
+    private Duration timeout(final String name) {
+        final Duration check = checkTimeouts.apply(name);
+        return check.compareTo(totalTimeout) < 0 ? check : totalTimeout;
+    }
+
+    private Duration interval(final String name) {
+        return intervals.computeIfAbsent(name, n -> {
+            final String configured = env.getProperty(INTERVAL_PREFIX + n);
+            return configured == null ? defaultInterval : Duration.parse(configured);
+        });
+    }
+
+    private static Map<String, Cached> without(final Map<String, Cached> results, final Set<String> names) {
+        final Map<String, Cached> updated = new HashMap<>(results);
+        updated.keySet().retainAll(names);
+        return Collections.unmodifiableMap(updated);
+    }
+
+    private final class Cached {
+        private final Result result;
+        private final long nanos;
+
+        Cached(final Result result, final long nanos) {
+            this.result = result;
+            this.nanos = nanos;
+        }
+
+        Result toResult(final long nowNanos) {
+            final Duration age = Duration.ofNanos(nowNanos - nanos);
+            final ResultBuilder builder = Result.builder();
+            if (age.compareTo(maxStaleness) > 0) {
+                builder.unhealthy()
+                        .withMessage("no result for over max-staleness %s, last was: %s",
+                                maxStaleness, result.getMessage());
+            } else {
+                if (result.isHealthy()) {
+                    builder.healthy();
+                } else if (result.getError() != null) {
+                    builder.unhealthy(result.getError());
+                } else {
+                    builder.unhealthy();
+                }
+                builder.withMessage(result.getMessage());
+                if (result.getDetails() != null) {
+                    result.getDetails().forEach(builder::withDetail);
+                }
+            }
+            return builder.withDetail(AGE_DETAIL, age.toMillis()).build();
+        }
+    }
+}
@@ -42,6 +42,9 @@ import com.opentable.concurrent.ThreadPoolConfig;
 @Configuration
 @Import({
         MediocreHealthCheck.class,
+        HealthCheckCache.class,
+        GcOverheadMonitor.class,
+        GcOverheadHealthCheck.class,
         HealthConfiguration.HealthRegistrar.class,
 })
 public class HealthConfiguration {
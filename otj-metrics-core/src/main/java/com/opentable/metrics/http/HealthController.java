@@ -13,39 +13,63 @@
  */
 package com.opentable.metrics.http;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.health.HealthCheck.Result;
 import com.codahale.metrics.health.HealthCheckRegistry;
 
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.core.env.ConfigurableEnvironment;
 
+import com.opentable.metrics.health.HealthCheckCache;
 import com.opentable.metrics.health.HealthConfiguration;
 import com.opentable.metrics.common.CheckController;
+import com.opentable.metrics.common.TimedChecks;
 import com.opentable.metrics.health.HealthProbeEvent;
 
 @Named
 public class HealthController extends CheckController<Result> {
     private static final Logger LOG = LoggerFactory.getLogger(HealthController.class);
     private static final String CONFIG_PREFIX = "ot.metrics.health.group.";
+    private static final String TIMEOUT_CONFIG_PREFIX = "ot.metrics.health.";
 
     private final HealthCheckRegistry registry;
+    private final HealthCheckCache cache;
+    private final TimedChecks<Result> timedChecks;
 
-    @Inject
     public HealthController(HealthCheckRegistry registry, @Named(HealthConfiguration.HEALTH_CHECK_POOL_NAME) ExecutorService executor,
                             ConfigurableEnvironment env, ApplicationEventPublisher publisher) {
+        this(registry, executor, env, publisher, null, null);
+    }
+
+    /**
+     * Each check is given up on after "ot.metrics.health.timeout.&lt;name&gt;", else "ot.metrics.health.check-timeout"
+     * (default 10 seconds), and all of them after "ot.metrics.health.total-timeout" (default 15 seconds).
+     * @param cache if enabled, results are served from it instead of running the checks on every call
+     * @param metrics metric registry for the per check timeout meters
+     */
+    @Inject
+    public HealthController(HealthCheckRegistry registry, @Named(HealthConfiguration.HEALTH_CHECK_POOL_NAME) ExecutorService executor,
+                            ConfigurableEnvironment env, ApplicationEventPublisher publisher, HealthCheckCache cache,
+                            MetricRegistry metrics) {
         super(executor, env, CONFIG_PREFIX, publisher);
         this.registry = registry;
+        this.cache = cache;
+        this.timedChecks = new TimedChecks<>(metrics, HealthConfiguration.HEALTH_CHECK_POOL_NAME,
+                TimedChecks.checkTimeouts(env, TIMEOUT_CONFIG_PREFIX), TimedChecks.totalTimeout(env, TIMEOUT_CONFIG_PREFIX),
+                timeout -> Result.unhealthy("timed out after %s", timeout), Result::unhealthy);
     }
 
     @Override
@@ -54,18 +78,12 @@ public class HealthController extends CheckController<Result> {
     }
 
     private static CheckState resToState(Result r) {
-        if (r.isHealthy()) {
-            return CheckState.HEALTHY;
-        }
-        if (StringUtils.startsWithIgnoreCase(r.getMessage(), WARN_PREFIX)) {
-            return CheckState.WARNING;
-        }
-        return CheckState.CRITICAL;
+        return checkState(r.isHealthy(), r.getMessage());
     }
 
     @Override
     protected SortedMap<String, Result> getCheckResults() {
-        final SortedMap<String, Result> results = registry.runHealthChecks(executor);
+        final SortedMap<String, Result> results = cache != null && cache.isEnabled() ? cache.runHealthChecks() : runHealthChecks();
         LOG.trace("The results gathered {}", results);
         results.forEach((name, result) -> {
             final Result oldResult = failingChecks.get(name);
@@ -90,6 +108,14 @@ public class HealthController extends CheckController<Result> {
         return results;
     }
 
+    private SortedMap<String, Result> runHealthChecks() {
+        final Map<String, Callable<Result>> checks = new LinkedHashMap<>();
+        for (final String name : registry.getNames()) {
+            checks.put(name, () -> registry.runHealthCheck(name));
+        }
+        return timedChecks.run(executor, checks);
+    }
+
     @Override
     protected ApplicationEvent getEvent(final boolean checkPasses) {
         return new HealthProbeEvent(this, checkPasses);
@@ -0,0 +1,225 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Heap allocation rate, from the per-thread allocated bytes counters HotSpot keeps anyway.
+ *
+ * <p>
+ * Every {@link #REFRESH_PERIOD} we read all threads' counters in one call and diff them against the previous
+ * read; the names of threads new since then are looked up in one more call. That gives {@code bytes} (a meter, so it has the usual rates) and {@code bytes-per-second} over the last
+ * period, plus {@code top-threads}: the {@value #TOP_GROUPS} thread groups (threads named alike, see
+ * {@link ThreadNames#group}) that allocated the most, in bytes per second. That last one is a map, so it only
+ * shows up on the HTTP endpoints, not in Graphite.
+ *
+ * <p>
+ * Whatever a thread allocated between the last read and its death is not counted.
+ */
+@SuppressWarnings("restriction")
+public class AllocationRateMetrics implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(AllocationRateMetrics.class);
+    private static final Duration REFRESH_PERIOD = Duration.ofSeconds(10);
+    private static final int TOP_GROUPS = 5;
+
+    private final String prefix;
+    private final MetricRegistry metrics;
+    private final ThreadMXBean threads;
+
+    // Only touched by the polling thread
+    private Map<Long, ThreadAllocation> lastByThread;
+    private long lastPollNanos;
+
+    private Meter allocated;
+    private volatile double bytesPerSecond;
+    private volatile Map<String, Long> topGroups = Collections.emptyMap();
+    // Guarded by this
+    private ScheduledFuture<?> task;
+
+    public AllocationRateMetrics(final String metricNamePrefix, final MetricRegistry metrics) {
+        this(metricNamePrefix, metrics, ManagementFactory.getThreadMXBean());
+    }
+
+    @VisibleForTesting
+    AllocationRateMetrics(final String metricNamePrefix, final MetricRegistry metrics, final ThreadMXBean threads) {
+        this.prefix = metricNamePrefix;
+        this.metrics = metrics;
+        this.threads = threads;
+    }
+
+    /**
+     * Register the metrics and start polling, if this JVM can measure per-thread allocation.
+     * @param scheduler where to poll
+     */
+    public synchronized void register(final ScheduledExecutorService scheduler) {
+        if (!isSupported()) {
+            LOG.info("Per-thread allocation measurement unavailable, not reporting {}", prefix);
+            return;
+        }
+        registerMetrics();
+        task = scheduler.scheduleAtFixedRate(this::poll, 0, REFRESH_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop polling.
+     */
+    @Override
+    public synchronized void close() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    private boolean isSupported() {
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled();
+    }
+
+    @VisibleForTesting
+    void registerMetrics() {
+        allocated = metrics.meter(MetricRegistry.name(prefix, "bytes"));
+        metrics.register(MetricRegistry.name(prefix, "bytes-per-second"), (Gauge<Double>) () -> bytesPerSecond);
+        metrics.register(MetricRegistry.name(prefix, "top-threads"), (Gauge<Map<String, Long>>) () -> topGroups);
+    }
+
+    private void poll() {
+        try {
+            sample(System.nanoTime());
+        } catch (RuntimeException e) {
+            LOG.error("Error polling allocation metrics", e);
+        }
+    }
+
+    @VisibleForTesting
+    void sample(final long nowNanos) {
+        final long[] ids = threads.getAllThreadIds();
+        final long[] bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+        final boolean baseline = lastByThread == null;
+        final Map<Long, String> newNames = threadNames(unseen(ids, bytes, baseline));
+        final Map<Long, ThreadAllocation> byThread = new HashMap<>(ids.length * 2);
+        final Map<String, Long> byGroup = new HashMap<>();
+        long total = 0;
+
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] < 0) {
+                // Died since getAllThreadIds
+                continue;
+            }
+            ThreadAllocation thread = baseline ? null : lastByThread.get(ids[i]);
+            final long delta;
+            if (thread == null) {
+                final String name = newNames.get(ids[i]);
+                if (name == null) {
+                    continue;
+                }
+                thread = new ThreadAllocation(ThreadNames.group(name));
+                // A thread we haven't seen before started during this period
+                delta = baseline ? 0 : bytes[i];
+            } else {
+                delta = bytes[i] - thread.bytes;
+            }
+            thread.bytes = bytes[i];
+            byThread.put(ids[i], thread);
+            if (delta > 0) {
+                total += delta;
+                byGroup.merge(thread.group, delta, Long::sum);
+            }
+        }
+
+        lastByThread = byThread;
+        final long elapsedNanos = nowNanos - lastPollNanos;
+        lastPollNanos = nowNanos;
+        if (baseline || elapsedNanos <= 0) {
+            return;
+        }
+        final double seconds = elapsedNanos / 1e9;
+        allocated.mark(total);
+        bytesPerSecond = total / seconds;
+        topGroups = top(byGroup, seconds);
+    }
+
+    private long[] unseen(final long[] ids, final long[] bytes, final boolean baseline) {
+        final long[] result = new long[ids.length];
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0 && (baseline || !lastByThread.containsKey(ids[i]))) {
+                result[count++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @param ids thread ids
+     * @return thread id &rarr; name, of those that are still alive; all from one call, without stacks
+     */
+    @VisibleForTesting
+    Map<Long, String> threadNames(final long[] ids) {
+        if (ids.length == 0) {
+            return Collections.emptyMap();
+        }
+        final Map<Long, String> result = new HashMap<>(ids.length * 2);
+        for (final ThreadInfo info : threads.getThreadInfo(ids, 0)) {
+            if (info != null) {
+                result.put(info.getThreadId(), info.getThreadName());
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, Long> top(final Map<String, Long> byGroup, final double seconds) {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(byGroup.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (final Map.Entry<String, Long> entry : entries.subList(0, Math.min(TOP_GROUPS, entries.size()))) {
+            result.put(entry.getKey(), (long) (entry.getValue() / seconds));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static final class ThreadAllocation {
+        private final String group;
+        private long bytes;
+
+        ThreadAllocation(final String group) {
+            this.group = group;
+        }
+    }
+}
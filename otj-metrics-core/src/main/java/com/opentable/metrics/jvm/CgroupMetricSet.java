@@ -0,0 +1,239 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Container resource metrics, read from our own cgroup (v2 unified, or v1 {@code cpu} and {@code memory}
+ * controllers). CPU throttling in particular is invisible from inside the JVM, yet is a common cause of latency
+ * in containers with a CPU limit.
+ * <ul>
+ *     <li>{@code cpu.nr-periods}, {@code cpu.nr-throttled}: enforcement periods elapsed, and in how many we were
+ *     throttled</li>
+ *     <li>{@code cpu.throttled-usec}: total time throttled, in microseconds</li>
+ *     <li>{@code memory.current}, {@code memory.max}: memory charged to the cgroup, and its limit (-1 if none)</li>
+ *     <li>{@code memory.pressure.some-avg10}, {@code some-avg60}, {@code full-avg10}, {@code full-avg60}: percent
+ *     of time some or all tasks stalled on memory (v2 only)</li>
+ * </ul>
+ * Our cgroup is found from {@code /proc/self/cgroup}. In a cgroup namespace, as in most containers, that says
+ * {@code /} and the mount root is our own cgroup; on a host it names a directory below the root, and we use the
+ * root only if that directory isn't visible.
+ *
+ * <p>
+ * The files are read once and shared by all the gauges for a second, so a reporting cycle costs one read each.
+ * If there is no cgroup filesystem this is empty; gauges whose file is missing or unreadable report null.
+ */
+public class CgroupMetricSet implements MetricSet {
+    private static final Path DEFAULT_ROOT = Paths.get("/sys/fs/cgroup");
+    private static final Path DEFAULT_PROC_CGROUP = Paths.get("/proc/self/cgroup");
+    private static final long CACHE_MILLIS = 1000;
+    // What v1 reports for "no limit": LONG_MAX rounded down to a page
+    private static final long V1_UNLIMITED = Long.MAX_VALUE / 2;
+
+    private static final List<String> V2_NAMES = ImmutableList.of(
+            "cpu.nr-periods", "cpu.nr-throttled", "cpu.throttled-usec", "memory.current", "memory.max",
+            "memory.pressure.some-avg10", "memory.pressure.some-avg60",
+            "memory.pressure.full-avg10", "memory.pressure.full-avg60");
+    private static final List<String> V1_NAMES = ImmutableList.of(
+            "cpu.nr-periods", "cpu.nr-throttled", "cpu.throttled-usec", "memory.current", "memory.max");
+
+    private final CachedGauge<Map<String, Number>> snapshot;
+    private final Map<String, Metric> metricMap;
+
+    public CgroupMetricSet() {
+        this(DEFAULT_ROOT, DEFAULT_PROC_CGROUP, Clock.defaultClock());
+    }
+
+    @VisibleForTesting
+    CgroupMetricSet(final Path root, final Path procCgroup, final Clock clock) {
+        final Supplier<Map<String, Number>> reader;
+        final List<String> names;
+        if (Files.exists(root.resolve("cgroup.controllers"))) {
+            final Path dir = resolve(root, ownPaths(procCgroup).get(""));
+            reader = () -> readV2(dir);
+            names = V2_NAMES;
+        } else if (Files.isDirectory(root.resolve("memory")) || Files.isDirectory(root.resolve("cpu"))) {
+            final Map<String, String> paths = ownPaths(procCgroup);
+            // Usually cpu is a symlink to "cpu,cpuacct", which is fine
+            final Path cpu = resolve(root.resolve("cpu"), paths.get("cpu"));
+            final Path memory = resolve(root.resolve("memory"), paths.get("memory"));
+            reader = () -> readV1(cpu, memory);
+            names = V1_NAMES;
+        } else {
+            reader = Collections::emptyMap;
+            names = Collections.emptyList();
+        }
+        snapshot = new CachedGauge<Map<String, Number>>(clock, CACHE_MILLIS, TimeUnit.MILLISECONDS) {
+            @Override
+            protected Map<String, Number> loadValue() {
+                return reader.get();
+            }
+        };
+        final ImmutableMap.Builder<String, Metric> builder = ImmutableMap.builder();
+        names.forEach(name -> builder.put(name, (Gauge<Number>) () -> snapshot.getValue().get(name)));
+        metricMap = builder.build();
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return metricMap;
+    }
+
+    private static Map<String, Number> readV2(final Path dir) {
+        final Map<String, Number> values = new HashMap<>();
+        final Map<String, String> cpuStat = keyed(readLines(dir.resolve("cpu.stat")));
+        put(values, "cpu.nr-periods", cpuStat.get("nr_periods"), 1);
+        put(values, "cpu.nr-throttled", cpuStat.get("nr_throttled"), 1);
+        put(values, "cpu.throttled-usec", cpuStat.get("throttled_usec"), 1);
+        put(values, "memory.current", firstLine(dir.resolve("memory.current")), 1);
+        put(values, "memory.max", firstLine(dir.resolve("memory.max")), 1);
+        // "some avg10=0.00 avg60=0.00 avg300=0.00 total=0", and the same for "full"
+        for (final String line : readLines(dir.resolve("memory.pressure"))) {
+            final int space = line.indexOf(' ');
+            if (space <= 0) {
+                continue;
+            }
+            final String kind = line.substring(0, space);
+            for (final String part : line.substring(space + 1).split(" ")) {
+                final int eq = part.indexOf('=');
+                final String field = eq > 0 ? part.substring(0, eq) : "";
+                if ("avg10".equals(field) || "avg60".equals(field)) {
+                    final Double value = parseDouble(part.substring(eq + 1));
+                    if (value != null) {
+                        values.put("memory.pressure." + kind + '-' + field, value);
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    private static Map<String, Number> readV1(final Path cpu, final Path memory) {
+        final Map<String, Number> values = new HashMap<>();
+        final Map<String, String> cpuStat = keyed(readLines(cpu.resolve("cpu.stat")));
+        put(values, "cpu.nr-periods", cpuStat.get("nr_periods"), 1);
+        put(values, "cpu.nr-throttled", cpuStat.get("nr_throttled"), 1);
+        // v1 reports nanoseconds
+        put(values, "cpu.throttled-usec", cpuStat.get("throttled_time"), 1000);
+        put(values, "memory.current", firstLine(memory.resolve("memory.usage_in_bytes")), 1);
+        final Long limit = parseLong(firstLine(memory.resolve("memory.limit_in_bytes")));
+        if (limit != null) {
+            values.put("memory.max", limit >= V1_UNLIMITED ? -1L : limit);
+        }
+        return values;
+    }
+
+    /**
+     * @return our cgroup path per v1 controller, and under {@code ""} for v2; empty if unknown
+     */
+    @VisibleForTesting
+    static Map<String, String> ownPaths(final Path procCgroup) {
+        final Map<String, String> paths = new HashMap<>();
+        // "hierarchy-id:controller,controller:path", where v2 has id 0 and no controllers
+        for (final String line : readLines(procCgroup)) {
+            final int first = line.indexOf(':');
+            final int second = line.indexOf(':', first + 1);
+            if (first < 0 || second < 0) {
+                continue;
+            }
+            final String path = line.substring(second + 1);
+            for (final String controller : line.substring(first + 1, second).split(",")) {
+                paths.putIfAbsent(controller, path);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return our cgroup's directory below {@code mount}; the mount itself if we are namespaced (path {@code /}),
+     * the path is unknown, or it isn't visible to us
+     */
+    private static Path resolve(final Path mount, final String path) {
+        if (path == null || "/".equals(path)) {
+            return mount;
+        }
+        final Path dir = mount.resolve(path.substring(1));
+        return Files.isDirectory(dir) ? dir : mount;
+    }
+
+    /** A "key value" per line file, such as cpu.stat. */
+    private static Map<String, String> keyed(final List<String> lines) {
+        final Map<String, String> fields = new HashMap<>();
+        for (final String line : lines) {
+            final int space = line.indexOf(' ');
+            if (space > 0) {
+                fields.put(line.substring(0, space), line.substring(space + 1).trim());
+            }
+        }
+        return fields;
+    }
+
+    /** A value, where "max" means unlimited. */
+    private static void put(final Map<String, Number> values, final String name, final String value,
+                            final long divisor) {
+        final Long parsed = "max".equals(value) ? Long.valueOf(-1) : parseLong(value);
+        if (parsed != null) {
+            values.put(name, parsed < 0 ? parsed : parsed / divisor);
+        }
+    }
+
+    private static String firstLine(final Path file) {
+        final List<String> lines = readLines(file);
+        return lines.isEmpty() ? null : lines.get(0).trim();
+    }
+
+    private static Long parseLong(final String value) {
+        try {
+            return value == null ? null : Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Double parseDouble(final String value) {
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static List<String> readLines(final Path file) {
+        try {
+            return Files.readAllLines(file, StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.google.common.annotations.VisibleForTesting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lock contention, per group of alike named threads (see {@link ThreadNames#group}).
+ *
+ * <p>
+ * Turns on the JVM's thread contention monitoring, which makes every contended monitor enter and every wait a little
+ * more expensive; hence this is off by default, see {@code ot.metrics.contention.enabled} in
+ * {@link com.opentable.metrics.JvmMetricsConfiguration}. Every {@link #REFRESH_PERIOD} we diff all threads' blocked
+ * and waited times and counts, and publish over the last period:
+ * <ul>
+ *     <li>{@code blocked-time}, {@code waited-time}: milliseconds per second, summed over all threads; blocked is
+ *     waiting to enter a {@code synchronized} block, waited is {@code Object.wait}, {@code LockSupport.park} and the
+ *     like, which includes idle pool threads waiting for work</li>
+ *     <li>{@code blocked-count}, {@code waited-count}: per second</li>
+ *     <li>{@code top-blocked}, {@code top-waited}: the {@value #TOP_GROUPS} thread groups with the most blocked or
+ *     waited time, in milliseconds per second; maps, so they only show up on the HTTP endpoints</li>
+ * </ul>
+ * It also registers two health checks: {@value #CONTENTION_CHECK}, always healthy, which reports the top groups;
+ * and {@value #DEADLOCK_CHECK}, unhealthy while any threads are deadlocked.
+ */
+public class ContentionMetrics implements AutoCloseable {
+    public static final String CONTENTION_CHECK = "jvm-contention";
+    public static final String DEADLOCK_CHECK = "jvm-deadlocks";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentionMetrics.class);
+    private static final Duration REFRESH_PERIOD = Duration.ofSeconds(10);
+    private static final int TOP_GROUPS = 5;
+
+    private final String prefix;
+    private final MetricRegistry metrics;
+    private final ThreadMXBean threads;
+
+    // Only touched by the polling thread
+    private Map<Long, ThreadContention> lastByThread;
+    private long lastPollNanos;
+
+    private volatile Rates totals = new Rates();
+    private volatile Map<String, Long> topBlocked = Collections.emptyMap();
+    private volatile Map<String, Long> topWaited = Collections.emptyMap();
+    // Guarded by this
+    private HealthCheckRegistry healthChecks;
+    private ScheduledFuture<?> task;
+
+    public ContentionMetrics(final String metricNamePrefix, final MetricRegistry metrics) {
+        this(metricNamePrefix, metrics, ManagementFactory.getThreadMXBean());
+    }
+
+    @VisibleForTesting
+    ContentionMetrics(final String metricNamePrefix, final MetricRegistry metrics, final ThreadMXBean threads) {
+        this.prefix = metricNamePrefix;
+        this.metrics = metrics;
+        this.threads = threads;
+    }
+
+    /**
+     * Turn on contention monitoring, register the metrics and health checks, and start polling.
+     * @param healthCheckRegistry where to register the health checks
+     * @param scheduler where to poll
+     */
+    public synchronized void register(final HealthCheckRegistry healthCheckRegistry,
+                                      final ScheduledExecutorService scheduler) {
+        if (!threads.isThreadContentionMonitoringSupported()) {
+            LOG.info("Thread contention monitoring unavailable, not reporting {}", prefix);
+            return;
+        }
+        threads.setThreadContentionMonitoringEnabled(true);
+        registerMetrics();
+        healthCheckRegistry.register(CONTENTION_CHECK, contentionCheck());
+        healthCheckRegistry.register(DEADLOCK_CHECK, deadlockCheck());
+        healthChecks = healthCheckRegistry;
+        task = scheduler.scheduleAtFixedRate(this::poll, 0, REFRESH_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop polling, unregister the health checks and turn contention monitoring back off.
+     */
+    @Override
+    public synchronized void close() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        if (healthChecks != null) {
+            healthChecks.unregister(CONTENTION_CHECK);
+            healthChecks.unregister(DEADLOCK_CHECK);
+            healthChecks = null;
+            threads.setThreadContentionMonitoringEnabled(false);
+        }
+    }
+
+    @VisibleForTesting
+    void registerMetrics() {
+        metrics.register(MetricRegistry.name(prefix, "blocked-time"), (Gauge<Long>) () -> totals.blockedMillis);
+        metrics.register(MetricRegistry.name(prefix, "blocked-count"), (Gauge<Long>) () -> totals.blockedCount);
+        metrics.register(MetricRegistry.name(prefix, "waited-time"), (Gauge<Long>) () -> totals.waitedMillis);
+        metrics.register(MetricRegistry.name(prefix, "waited-count"), (Gauge<Long>) () -> totals.waitedCount);
+        metrics.register(MetricRegistry.name(prefix, "top-blocked"), (Gauge<Map<String, Long>>) () -> topBlocked);
+        metrics.register(MetricRegistry.name(prefix, "top-waited"), (Gauge<Map<String, Long>>) () -> topWaited);
+    }
+
+    @VisibleForTesting
+    HealthCheck contentionCheck() {
+        return new HealthCheck() {
+            @Override
+            protected Result check() {
+                return Result.builder()
+                        .healthy()
+                        .withMessage("most blocked: %s", topBlocked)
+                        .withDetail("blocked-millis-per-second", topBlocked)
+                        .withDetail("waited-millis-per-second", topWaited)
+                        .build();
+            }
+        };
+    }
+
+    @VisibleForTesting
+    HealthCheck deadlockCheck() {
+        return new HealthCheck() {
+            @Override
+            protected Result check() {
+                final long[] ids = threads.findDeadlockedThreads();
+                if (ids == null) {
+                    return Result.healthy();
+                }
+                final List<String> deadlocked = new ArrayList<>();
+                for (final ThreadInfo info : threads.getThreadInfo(ids, 0)) {
+                    if (info != null) {
+                        deadlocked.add(String.format("%s locked on %s (owned by %s)",
+                                info.getThreadName(), info.getLockName(), info.getLockOwnerName()));
+                    }
+                }
+                return Result.unhealthy("deadlocked threads: %s", deadlocked);
+            }
+        };
+    }
+
+    private void poll() {
+        try {
+            sample(System.nanoTime());
+        } catch (RuntimeException e) {
+            LOG.error("Error polling contention metrics", e);
+        }
+    }
+
+    @VisibleForTesting
+    void sample(final long nowNanos) {
+        final ThreadInfo[] infos = threads.getThreadInfo(threads.getAllThreadIds(), 0);
+        final boolean baseline = lastByThread == null;
+        final Map<Long, ThreadContention> byThread = new HashMap<>(infos.length * 2);
+        final Map<String, Rates> byGroup = new HashMap<>();
+        final Rates total = new Rates();
+
+        for (final ThreadInfo info : infos) {
+            if (info == null) {
+                // Died since getAllThreadIds
+                continue;
+            }
+            final ThreadContention previous = baseline ? null : lastByThread.get(info.getThreadId());
+            final ThreadContention current = new ThreadContention(
+                    previous == null ? ThreadNames.group(info.getThreadName()) : previous.group, info);
+            byThread.put(info.getThreadId(), current);
+            if (baseline) {
+                continue;
+            }
+            // If previous is null, the thread started during this period, so all it has counts
+            final Rates delta = current.minus(previous);
+            total.add(delta);
+            byGroup.computeIfAbsent(current.group, g -> new Rates()).add(delta);
+        }
+
+        lastByThread = byThread;
+        final long elapsedNanos = nowNanos - lastPollNanos;
+        lastPollNanos = nowNanos;
+        if (baseline || elapsedNanos <= 0) {
+            return;
+        }
+        final double seconds = elapsedNanos / 1e9;
+        totals = total.per(seconds);
+        topBlocked = top(byGroup, seconds, true);
+        topWaited = top(byGroup, seconds, false);
+    }
+
+    @VisibleForTesting
+    Rates getTotals() {
+        return totals;
+    }
+
+    @VisibleForTesting
+    Map<String, Long> getTopBlocked() {
+        return topBlocked;
+    }
+
+    @VisibleForTesting
+    Map<String, Long> getTopWaited() {
+        return topWaited;
+    }
+
+    private static Map<String, Long> top(final Map<String, Rates> byGroup, final double seconds,
+                                         final boolean blocked) {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(byGroup.size());
+        for (final Map.Entry<String, Rates> entry : byGroup.entrySet()) {
+            final long millis = blocked ? entry.getValue().blockedMillis : entry.getValue().waitedMillis;
+            if (millis > 0) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), millis));
+            }
+        }
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (final Map.Entry<String, Long> entry : entries.subList(0, Math.min(TOP_GROUPS, entries.size()))) {
+            result.put(entry.getKey(), (long) (entry.getValue() / seconds));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Blocked and waited times (ms) and counts; either totals over a period, or per second.
+     */
+    @VisibleForTesting
+    static final class Rates {
+        private long blockedMillis;
+        private long blockedCount;
+        private long waitedMillis;
+        private long waitedCount;
+
+        void add(final Rates other) {
+            blockedMillis += other.blockedMillis;
+            blockedCount += other.blockedCount;
+            waitedMillis += other.waitedMillis;
+            waitedCount += other.waitedCount;
+        }
+
+        Rates per(final double seconds) {
+            final Rates result = new Rates();
+            result.blockedMillis = (long) (blockedMillis / seconds);
+            result.blockedCount = (long) (blockedCount / seconds);
+            result.waitedMillis = (long) (waitedMillis / seconds);
+            result.waitedCount = (long) (waitedCount / seconds);
+            return result;
+        }
+
+        long getBlockedMillis() {
+            return blockedMillis;
+        }
+
+        long getBlockedCount() {
+            return blockedCount;
+        }
+
+        long getWaitedMillis() {
+            return waitedMillis;
+        }
+
+        long getWaitedCount() {
+            return waitedCount;
+        }
+    }
+
+    private static final class ThreadContention {
+        private final String group;
+        private final long blockedMillis;
+        private final long blockedCount;
+        private final long waitedMillis;
+        private final long waitedCount;
+
+        ThreadContention(final String group, final ThreadInfo info) {
+            this.group = group;
+            // Times are -1 if monitoring was off when we read them
+            this.blockedMillis = Math.max(0, info.getBlockedTime());
+            this.blockedCount = info.getBlockedCount();
+            this.waitedMillis = Math.max(0, info.getWaitedTime());
+            this.waitedCount = info.getWaitedCount();
+        }
+
+        /**
+         * @param previous this thread at the last poll, or null if it's new
+         */
+        Rates minus(final ThreadContention previous) {
+            final Rates result = new Rates();
+            result.blockedMillis = blockedMillis - (previous == null ? 0 : previous.blockedMillis);
+            result.blockedCount = blockedCount - (previous == null ? 0 : previous.blockedCount);
+            result.waitedMillis = waitedMillis - (previous == null ? 0 : previous.waitedMillis);
+            result.waitedCount = waitedCount - (previous == null ? 0 : previous.waitedCount);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.management.OperatingSystemMXBean;
+
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process CPU usage over fixed periods, unlike {@link CpuLoadGauge} whose MXBean call measures "since whoever last
+ * asked", so that concurrent readers skew each other.
+ *
+ * <p>
+ * Every {@link #REFRESH_PERIOD} we diff the process CPU time, and publish over the last period:
+ * <ul>
+ *     <li>{@code cores-used}: CPU seconds per second, e.g. 1.5 for one and a half cores busy</li>
+ *     <li>{@code utilization}: the same as a fraction of the available processors</li>
+ *     <li>{@code user-cores}, {@code system-cores}: split of {@code cores-used} between user and kernel mode, from
+ *     {@code /proc/self/stat}; NaN without {@code /proc}</li>
+ *     <li>{@code seconds-per-request}: CPU seconds per request completed in the period, using the count of the
+ *     given request timer (normally {@link com.opentable.metrics.OTInstrumentedHandler}'s); NaN if there were
+ *     none</li>
+ * </ul>
+ * Each gauge reads a value computed at the last poll, so readers don't affect each other.
+ */
+@SuppressWarnings("restriction")
+public class CpuUsageMetrics implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(CpuUsageMetrics.class);
+    private static final Duration REFRESH_PERIOD = Duration.ofSeconds(10);
+
+    private final String prefix;
+    private final MetricRegistry metrics;
+    private final String requestTimerName;
+    private final OperatingSystemMXBean bean = ManagementFactory.getPlatformMXBean(OperatingSystemMXBean.class);
+    private final ProcMetricSet proc;
+    private final int cores = Runtime.getRuntime().availableProcessors();
+
+    // Only touched by the polling thread
+    private Sample last;
+
+    private volatile double coresUsed = Double.NaN;
+    private volatile double userCores = Double.NaN;
+    private volatile double systemCores = Double.NaN;
+    private volatile double secondsPerRequest = Double.NaN;
+    // Guarded by this
+    private ScheduledFuture<?> task;
+
+    /**
+     * @param metricNamePrefix prefix for our metric names
+     * @param metrics registry to register with
+     * @param proc the registered {@code /proc} metrics, for the user and kernel mode split
+     * @param requestTimerName name of the timer (or any counting metric) whose count is the number of requests
+     */
+    public CpuUsageMetrics(final String metricNamePrefix, final MetricRegistry metrics, final ProcMetricSet proc,
+                           final String requestTimerName) {
+        this.prefix = metricNamePrefix;
+        this.metrics = metrics;
+        this.proc = proc;
+        this.requestTimerName = requestTimerName;
+    }
+
+    /**
+     * Register the metrics and start sampling, if this JVM can measure its own CPU time.
+     * @param scheduler where to sample
+     */
+    public synchronized void register(final ScheduledExecutorService scheduler) {
+        if (bean == null || bean.getProcessCpuTime() < 0) {
+            LOG.info("Process CPU time unavailable, not reporting {}", prefix);
+            return;
+        }
+        metrics.register(MetricRegistry.name(prefix, "cores-used"), (Gauge<Double>) () -> coresUsed);
+        metrics.register(MetricRegistry.name(prefix, "utilization"), (Gauge<Double>) () -> coresUsed / cores);
+        metrics.register(MetricRegistry.name(prefix, "user-cores"), (Gauge<Double>) () -> userCores);
+        metrics.register(MetricRegistry.name(prefix, "system-cores"), (Gauge<Double>) () -> systemCores);
+        metrics.register(MetricRegistry.name(prefix, "seconds-per-request"), (Gauge<Double>) () -> secondsPerRequest);
+        task = scheduler.scheduleAtFixedRate(this::poll, 0, REFRESH_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sampling.
+     */
+    @Override
+    public synchronized void close() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+    }
+
+    private void poll() {
+        try {
+            sample(new Sample(System.nanoTime(), bean.getProcessCpuTime(),
+                    proc.userTimeMillis(), proc.systemTimeMillis(), requestCount()));
+        } catch (RuntimeException e) {
+            LOG.error("Error polling CPU usage", e);
+        }
+    }
+
+    private long requestCount() {
+        final Metric timer = metrics.getMetrics().get(requestTimerName);
+        return timer instanceof Counting ? ((Counting) timer).getCount() : -1;
+    }
+
+    @VisibleForTesting
+    void sample(final Sample now) {
+        final Sample previous = last;
+        last = now;
+        if (previous == null || now.nanos <= previous.nanos) {
+            return;
+        }
+        final double seconds = (now.nanos - previous.nanos) / 1e9;
+        final double cpuSeconds = (now.cpuNanos - previous.cpuNanos) / 1e9;
+        coresUsed = cpuSeconds / seconds;
+        if (now.userMillis >= 0 && previous.userMillis >= 0 && now.systemMillis >= 0 && previous.systemMillis >= 0) {
+            userCores = (now.userMillis - previous.userMillis) / 1e3 / seconds;
+            systemCores = (now.systemMillis - previous.systemMillis) / 1e3 / seconds;
+        } else {
+            userCores = Double.NaN;
+            systemCores = Double.NaN;
+        }
+        final long requests = now.requests - previous.requests;
+        secondsPerRequest = previous.requests >= 0 && requests > 0 ? cpuSeconds / requests : Double.NaN;
+    }
+
+    @VisibleForTesting
+    double getCoresUsed() {
+        return coresUsed;
+    }
+
+    @VisibleForTesting
+    double getUserCores() {
+        return userCores;
+    }
+
+    @VisibleForTesting
+    double getSystemCores() {
+        return systemCores;
+    }
+
+    @VisibleForTesting
+    double getSecondsPerRequest() {
+        return secondsPerRequest;
+    }
+
+    /**
+     * Cumulative counters at one point in time; -1 for those we couldn't read.
+     */
+    @VisibleForTesting
+    static final class Sample {
+        private final long nanos;
+        private final long cpuNanos;
+        private final long userMillis;
+        private final long systemMillis;
+        private final long requests;
+
+        Sample(final long nanos, final long cpuNanos, final long userMillis, final long systemMillis,
+               final long requests) {
+            this.nanos = nanos;
+            this.cpuNanos = cpuNanos;
+            this.userMillis = userMillis;
+            this.systemMillis = systemMillis;
+            this.requests = requests;
+        }
+    }
+}
@@ -13,19 +13,15 @@
  */
 package com.opentable.metrics.jvm;
 
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryUsage;
 import java.time.Duration;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.function.LongSupplier;
-import java.util.function.ToLongFunction;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javax.management.Notification;
 import javax.management.NotificationEmitter;
@@ -35,10 +31,12 @@ import com.sun.management.GarbageCollectionNotificationInfo;
 import com.sun.management.GcInfo;
 
 import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
 
 import com.opentable.metrics.AtomicLongGauge;
 import com.opentable.metrics.FloatingPointHistogram;
@@ -46,20 +44,53 @@ import com.opentable.metrics.FloatingPointHistogram;
 /**
  * Thanks to Mike Bell for pointing out
  * <a href="http://www.fasterj.com/articles/gcnotifs.shtml">this reference</a>.
+ *
+ * <p>
+ * Metric names are built, and metrics looked up, once per collector and pool the first time we see them; after that
+ * a notification just updates the cached handles. See {@code GcMemoryMetricsBenchmark} for the per-notification
+ * allocation.
+ *
+ * <p>
+ * Pauses also feed a {@link GcOverheadWindow}, reported as {@code <prefix>.overhead}: percent of the last minute (or
+ * the given window) spent in GC pauses, across all collectors. Like the other metrics, it's shared with any other
+ * instance on the same registry and prefix, rather than registered twice.
  */
 @SuppressWarnings("restriction")
 public class GcMemoryMetrics {
+    private static final String BEFORE = "before";
+    private static final String AFTER = "after";
+    private static final Duration DEFAULT_OVERHEAD_WINDOW = Duration.ofMinutes(1);
+
     private final String prefix;
     //@GuardedBy("this")
     private final MetricRegistry metricRegistry;
-    /** {@link GarbageCollectionNotificationInfo#getGcName()} &rarr; {@link GcInfo#endTime} of last GC */
+    /** {@link GarbageCollectionNotificationInfo#getGcName()} &rarr; that collector's metrics */
     //@GuardedBy("this")
-    private final Map<String, Duration> lastEndTimes = new HashMap<>();
+    private final Map<String, CollectorMetrics> collectors = new HashMap<>();
+    private final GcOverheadWindow overhead;
 
     public GcMemoryMetrics(final String prefix, final MetricRegistry metricRegistry) {
+        this(prefix, metricRegistry, DEFAULT_OVERHEAD_WINDOW);
+    }
+
+    /**
+     * @param prefix prefix for our metric names
+     * @param metricRegistry registry to register with
+     * @param overheadWindow window for the {@code overhead} gauge
+     */
+    public GcMemoryMetrics(final String prefix, final MetricRegistry metricRegistry, final Duration overheadWindow) {
+        this(prefix, metricRegistry, overheadWindow, ManagementFactory.getGarbageCollectorMXBeans());
+    }
+
+    @VisibleForTesting
+    GcMemoryMetrics(final String prefix, final MetricRegistry metricRegistry, final Duration overheadWindow,
+                    final Collection<GarbageCollectorMXBean> gcs) {
         this.prefix = prefix;
         this.metricRegistry = metricRegistry;
-        ManagementFactory.getGarbageCollectorMXBeans().forEach(gc -> {
+        this.overhead = new GcOverheadWindow(overheadWindow);
+        final Gauge<Double> overheadGauge = () -> overhead.percent(ManagementFactory.getRuntimeMXBean().getUptime());
+        metricRegistry.gauge(name("overhead"), () -> overheadGauge);
+        gcs.forEach(gc -> {
             final NotificationEmitter emitter = (NotificationEmitter) gc;
             emitter.addNotificationListener(this::listener, null, null);
         });
@@ -74,124 +105,144 @@ public class GcMemoryMetrics {
         handle(info);
     }
 
-    private synchronized void handle(final GarbageCollectionNotificationInfo info) {
-        final String name = info.getGcName();
+    @VisibleForTesting
+    synchronized void handle(final GarbageCollectionNotificationInfo info) {
+        final String gcName = info.getGcName();
+        CollectorMetrics collector = collectors.get(gcName);
+        if (collector == null) {
+            collector = new CollectorMetrics(gcName);
+            collectors.put(gcName, collector);
+        }
         final GcInfo gcInfo = info.getGcInfo();
-        markMeter(name);
-        final Duration duration = Duration.ofMillis(gcInfo.getDuration());
-        final Duration endTime = Duration.ofMillis(gcInfo.getEndTime());
-        updateTime(name, duration, endTime);
-        putGauges(name, "before", gcInfo.getMemoryUsageBeforeGc());
-        putGauges(name, "after",  gcInfo.getMemoryUsageAfterGc());
-    }
-
-    private void putGauges(final String gcName, final String timePart, final Map<String, MemoryUsage> usages) {
-        usages.forEach((poolName, usage) -> {
-            putPoolGauge(gcName, timePart, poolName, "max",  usage::getMax);
-            putPoolGauge(gcName, timePart, poolName, "used", usage::getUsed);
-            putPoolGauge(gcName, timePart, poolName, "free", () -> free(usage));
-        });
-        putTotalGauge(gcName, timePart, "max",  sum(usages.values(), MemoryUsage::getMax));
-        putTotalGauge(gcName, timePart, "used", sum(usages.values(), MemoryUsage::getUsed));
-        putTotalGauge(gcName, timePart, "free", sum(usages.values(), GcMemoryMetrics::free));
-    }
-
-    /** Deprecated since the timer now tracks the rate. */
-    @Deprecated
-    private void markMeter(final String gcName) {
-        final String meterName = name(gcName, "rate");
-        final Metric metric = metricRegistry.getMetrics().get(meterName);
-        final Meter meter;
-        if (metric == null) {
-            meter = metricRegistry.meter(meterName);
-        } else {
-            meter = (Meter) metric;
+        collector.markMeter();
+        collector.updateTime(gcInfo.getDuration(), gcInfo.getEndTime());
+        collector.before.update(gcInfo.getMemoryUsageBeforeGc());
+        collector.after.update(gcInfo.getMemoryUsageAfterGc());
+        if (GcOverheadWindow.isPause(gcName)) {
+            overhead.record(gcInfo.getEndTime(), gcInfo.getDuration());
         }
-        meter.mark();
     }
 
-    /**
-     * Update timer metric for individual GC runs as well as histogram indicating a percent ([0, 100]) time spent in
-     * GC. End time is the duration since JVM startup to the end of this particular GC run. We instrument a percent
-     * instead of a proportion because the {@link com.codahale.metrics.graphite.GraphiteReporter#format(double)}
-     * provides only two fractional digits.
-     */
-    private void updateTime(final String gcName, final Duration duration, final Duration endTime) {
-        Metric metric;
-
-        // Timer metric for individual GC run.
-        final String timerName = name(gcName, "timer");
-        metric = metricRegistry.getMetrics().get(timerName);
-        final Timer timer;
-        if (metric == null) {
-            timer = metricRegistry.timer(timerName);
-        } else {
-            timer = (Timer) metric;
+    private String name(final String... parts) {
+        final StringBuilder result = new StringBuilder(prefix);
+        for (final String part : parts) {
+            result.append('.').append(normalize(part));
         }
-        timer.update(duration.toNanos(), TimeUnit.NANOSECONDS);
+        return result.toString();
+    }
 
-        // Percent time spent in GC.
+    private static String normalize(final String s) {
+        return s.toLowerCase(Locale.ROOT).replace(' ', '-');
+    }
 
-        final Duration lastEndTime = lastEndTimes.getOrDefault(gcName, Duration.ZERO);
-        final Duration vmTimeSinceLastGC = endTime.minus(lastEndTime);
-        final double percent = 100. * (duration.toMillis()) / (vmTimeSinceLastGC.toMillis());
-        lastEndTimes.put(gcName, endTime);
+    private static long free(final MemoryUsage usage) {
+        return usage.getMax() - usage.getUsed();
+    }
 
-        final String percentName = name(gcName, "pct-time-in-gc");
-        metric = metricRegistry.getMetrics().get(percentName);
-        final FloatingPointHistogram percentHist;
+    private <T extends Metric> T getOrRegister(final String metricName, final Class<T> type, final T newMetric) {
+        final Metric metric = metricRegistry.getMetrics().get(metricName);
         if (metric == null) {
-            percentHist = metricRegistry.register(percentName,
-                    new FloatingPointHistogram(new ExponentiallyDecayingReservoir(), 1e9));
-        } else {
-            percentHist = (FloatingPointHistogram) metric;
+            return metricRegistry.register(metricName, newMetric);
         }
-        percentHist.update(percent);
+        return type.cast(metric);
     }
 
-    private void putPoolGauge(
-            final String gcName,
-            final String timePart,
-            final String poolName,
-            final String name,
-            final LongSupplier s) {
-        putGauge(s, gcName, timePart, "pools", poolName, name);
+    private AtomicLongGauge gauge(final String... nameParts) {
+        return getOrRegister(name(nameParts), AtomicLongGauge.class, new AtomicLongGauge());
     }
 
-    private void putTotalGauge(final String gcName, final String timePart, final String name, final LongSupplier s) {
-        putGauge(s, gcName, timePart, "total", name);
-    }
+    private final class CollectorMetrics {
+        private final String gcName;
+        /** Deprecated since the timer now tracks the rate. */
+        private final Meter meter;
+        private final Timer timer;
+        private final FloatingPointHistogram percentHist;
+        private final UsageGauges before;
+        private final UsageGauges after;
+        /** {@link GcInfo#getEndTime()} of the last GC, in milliseconds */
+        private long lastEndTime;
+
+        CollectorMetrics(final String gcName) {
+            this.gcName = gcName;
+            this.meter = getOrRegister(name(gcName, "rate"), Meter.class, new Meter());
+            this.timer = getOrRegister(name(gcName, "timer"), Timer.class, new Timer());
+            this.percentHist = getOrRegister(name(gcName, "pct-time-in-gc"), FloatingPointHistogram.class,
+                    new FloatingPointHistogram(new ExponentiallyDecayingReservoir(), 1e9));
+            this.before = new UsageGauges(gcName, BEFORE);
+            this.after = new UsageGauges(gcName, AFTER);
+        }
 
-    private void putGauge(final LongSupplier s, final String... nameParts) {
-        final String gaugeName = name(nameParts);
-        final Metric metric = metricRegistry.getMetrics().get(gaugeName);
-        final AtomicLongGauge gauge;
-        if (metric == null) {
-            gauge = metricRegistry.register(gaugeName, new AtomicLongGauge());
-        } else {
-            gauge = (AtomicLongGauge) metric;
+        @Deprecated
+        void markMeter() {
+            meter.mark();
         }
-        gauge.set(s.getAsLong());
-    }
 
-    private LongSupplier sum(final Collection<MemoryUsage> usages, final ToLongFunction<MemoryUsage> f) {
-        return () -> usages.stream().mapToLong(f).sum();
+        /**
+         * Update timer metric for individual GC runs as well as histogram indicating a percent ([0, 100]) time spent in
+         * GC. End time is the duration since JVM startup to the end of this particular GC run. We instrument a percent
+         * instead of a proportion because the {@link com.codahale.metrics.graphite.GraphiteReporter#format(double)}
+         * provides only two fractional digits.
+         */
+        void updateTime(final long durationMillis, final long endTimeMillis) {
+            // Timer metric for individual GC run.
+            timer.update(durationMillis, TimeUnit.MILLISECONDS);
+
+            // Percent time spent in GC.
+            final long vmTimeSinceLastGC = endTimeMillis - lastEndTime;
+            final double percent = 100. * durationMillis / vmTimeSinceLastGC;
+            lastEndTime = endTimeMillis;
+            percentHist.update(percent);
+        }
     }
 
-    private String name(final String... parts) {
-        return Stream.concat(
-                Stream.of(prefix),
-                Arrays
-                        .stream(parts)
-                        .map(GcMemoryMetrics::normalize)
-        ).collect(Collectors.joining("."));
-    }
+    /** The before or after GC gauges of one collector. */
+    private final class UsageGauges {
+        private final String gcName;
+        private final String timePart;
+        /** pool name &rarr; max, used, free */
+        private final Map<String, AtomicLongGauge[]> pools = new HashMap<>();
+        private final AtomicLongGauge totalMax;
+        private final AtomicLongGauge totalUsed;
+        private final AtomicLongGauge totalFree;
+
+        UsageGauges(final String gcName, final String timePart) {
+            this.gcName = gcName;
+            this.timePart = timePart;
+            this.totalMax = gauge(gcName, timePart, "total", "max");
+            this.totalUsed = gauge(gcName, timePart, "total", "used");
+            this.totalFree = gauge(gcName, timePart, "total", "free");
+        }
 
-    private static String normalize(final String s) {
-        return s.toLowerCase(Locale.ROOT).replace(' ', '-');
-    }
+        void update(final Map<String, MemoryUsage> usages) {
+            long max = 0;
+            long used = 0;
+            long free = 0;
+            for (final Map.Entry<String, MemoryUsage> entry : usages.entrySet()) {
+                final MemoryUsage usage = entry.getValue();
+                final AtomicLongGauge[] gauges = pool(entry.getKey());
+                gauges[0].set(usage.getMax());
+                gauges[1].set(usage.getUsed());
+                gauges[2].set(free(usage));
+                max += usage.getMax();
+                used += usage.getUsed();
+                free += free(usage);
+            }
+            totalMax.set(max);
+            totalUsed.set(used);
+            totalFree.set(free);
+        }
 
-    private static long free(final MemoryUsage usage) {
-        return usage.getMax() - usage.getUsed();
+        private AtomicLongGauge[] pool(final String poolName) {
+            AtomicLongGauge[] gauges = pools.get(poolName);
+            if (gauges == null) {
+                gauges = new AtomicLongGauge[] {
+                        gauge(gcName, timePart, "pools", poolName, "max"),
+                        gauge(gcName, timePart, "pools", poolName, "used"),
+                        gauge(gcName, timePart, "pools", poolName, "free"),
+                };
+                pools.put(poolName, gauges);
+            }
+            return gauges;
+        }
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Percent of wall clock time spent in GC pauses over a sliding window, unlike the {@code pct-time-in-gc} histograms
+ * of {@link GcMemoryMetrics}, which are per collector and per collection, so that one long pause after a quiet spell
+ * reads the same as a steady stream of them.
+ *
+ * <p>
+ * Times are milliseconds since the JVM started, as in {@link com.sun.management.GcInfo}. A pause straddling the
+ * start of the window only counts for its part inside it.
+ */
+public class GcOverheadWindow {
+    private final long windowMillis;
+    /** start and end of each pause still (partly) in the window, oldest first */
+    //@GuardedBy("this")
+    private final Deque<long[]> pauses = new ArrayDeque<>();
+
+    public GcOverheadWindow(final Duration window) {
+        this.windowMillis = window.toMillis();
+    }
+
+    public Duration getWindow() {
+        return Duration.ofMillis(windowMillis);
+    }
+
+    /**
+     * @param gcName a collector name, e.g. {@code G1 Young Generation}
+     * @return whether its collections stop the application; concurrent cycles, e.g. {@code ZGC Cycles} or
+     * {@code G1 Concurrent GC}, report how long they ran alongside it, which isn't overhead
+     */
+    public static boolean isPause(final String gcName) {
+        return !gcName.contains("Cycles") && !gcName.contains("Concurrent");
+    }
+
+    /**
+     * @param endTimeMillis end of the pause, in milliseconds since JVM start
+     * @param durationMillis length of the pause
+     */
+    public synchronized void record(final long endTimeMillis, final long durationMillis) {
+        pauses.addLast(new long[] {endTimeMillis - durationMillis, endTimeMillis});
+        expire(endTimeMillis);
+    }
+
+    /**
+     * @param nowMillis milliseconds since JVM start
+     * @return percent ([0, 100]) of the window up to now spent in GC; of the uptime, while that's shorter
+     */
+    public synchronized double percent(final long nowMillis) {
+        expire(nowMillis);
+        final long length = Math.min(windowMillis, nowMillis);
+        if (length <= 0) {
+            return 0;
+        }
+        final long windowStart = nowMillis - length;
+        long paused = 0;
+        for (final long[] pause : pauses) {
+            paused += Math.max(0, Math.min(pause[1], nowMillis) - Math.max(pause[0], windowStart));
+        }
+        return Math.min(100., 100. * paused / length);
+    }
+
+    private void expire(final long nowMillis) {
+        while (!pauses.isEmpty() && pauses.peekFirst()[1] <= nowMillis - windowMillis) {
+            pauses.removeFirst();
+        }
+    }
+}
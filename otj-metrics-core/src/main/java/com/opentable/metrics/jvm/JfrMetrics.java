@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Turns JDK Flight Recorder events into timers, for the pauses and stalls the MXBeans can't see:
+ * <ul>
+ *     <li>{@code gc-pause}: individual GC pause phases ({@code jdk.GCPhasePause})</li>
+ *     <li>{@code safepoint-begin}: time to reach a safepoint ({@code jdk.SafepointBegin})</li>
+ *     <li>{@code safepoint-end}: time to leave one ({@code jdk.SafepointEnd})</li>
+ *     <li>{@code monitor-enter}: threads blocked on a contended {@code synchronized} ({@code jdk.JavaMonitorEnter})</li>
+ *     <li>{@code thread-park}: threads parked, e.g. on a {@code java.util.concurrent} lock ({@code jdk.ThreadPark});
+ *     off unless it has a threshold, since idle pool threads parked waiting for work dominate it</li>
+ *     <li>{@code virtual-thread-pinned}: virtual threads that blocked their carrier ({@code jdk.VirtualThreadPinned},
+ *     JDK 21+)</li>
+ * </ul>
+ * Each event only gets recorded above its threshold; the timer counts are therefore "how many over the threshold".
+ * There are also meters, without thresholds, for JIT activity:
+ * <ul>
+ *     <li>{@code compilations}: methods compiled ({@code jdk.Compilation})</li>
+ *     <li>{@code deoptimizations}: compiled code thrown away ({@code jdk.Deoptimization}, JDK 14+)</li>
+ *     <li>{@code code-cache-full}: times the code cache filled up, which stops compilation
+ *     ({@code jdk.CodeCacheFull})</li>
+ * </ul>
+ * Monitor and park events are frequent, so don't set those thresholds too low.
+ *
+ * <p>
+ * Events are streamed in-process from a {@link RecordingStream}, which adds a little JFR overhead; hence this is
+ * off by default, see {@code ot.metrics.jfr.*} in {@link com.opentable.metrics.JvmMetricsConfiguration}.
+ */
+public class JfrMetrics implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(JfrMetrics.class);
+    private static final Duration MAX_AGE = Duration.ofMinutes(1);
+
+    private final String prefix;
+    private final MetricRegistry metrics;
+    private final Thresholds thresholds;
+    private RecordingStream stream;
+
+    public JfrMetrics(final String metricNamePrefix, final MetricRegistry metrics, final Thresholds thresholds) {
+        this.prefix = metricNamePrefix;
+        this.metrics = metrics;
+        this.thresholds = thresholds;
+    }
+
+    /**
+     * Start streaming events. Logs and does nothing if JFR isn't available.
+     */
+    public synchronized void start() {
+        if (stream != null) {
+            return;
+        }
+        final RecordingStream rs;
+        try {
+            rs = new RecordingStream();
+        } catch (RuntimeException e) {
+            LOG.warn("JFR unavailable, not reporting {}", prefix, e);
+            return;
+        }
+        timeEvents(rs, "jdk.GCPhasePause", thresholds.gcPause, "gc-pause");
+        timeEvents(rs, "jdk.SafepointBegin", thresholds.safepoint, "safepoint-begin");
+        timeEvents(rs, "jdk.SafepointEnd", thresholds.safepoint, "safepoint-end");
+        timeEvents(rs, "jdk.JavaMonitorEnter", thresholds.monitorEnter, "monitor-enter");
+        timeEvents(rs, "jdk.ThreadPark", thresholds.threadPark, "thread-park");
+        // Not there before JDK 21, in which case enabling it is a no-op
+        timeEvents(rs, "jdk.VirtualThreadPinned", thresholds.virtualThreadPinned, "virtual-thread-pinned");
+        countEvents(rs, "jdk.Compilation", "compilations");
+        // Not there before JDK 14
+        countEvents(rs, "jdk.Deoptimization", "deoptimizations");
+        countEvents(rs, "jdk.CodeCacheFull", "code-cache-full");
+        rs.setMaxAge(MAX_AGE);
+        rs.startAsync();
+        stream = rs;
+    }
+
+    private void timeEvents(final RecordingStream rs, final String event, final Duration threshold, final String name) {
+        if (threshold == null) {
+            return;
+        }
+        final Timer timer = metrics.timer(MetricRegistry.name(prefix, name));
+        rs.enable(event).withThreshold(threshold).withoutStackTrace();
+        rs.onEvent(event, (RecordedEvent e) -> timer.update(e.getDuration().toNanos(), TimeUnit.NANOSECONDS));
+    }
+
+    private void countEvents(final RecordingStream rs, final String event, final String name) {
+        final Meter meter = metrics.meter(MetricRegistry.name(prefix, name));
+        rs.enable(event).withThreshold(Duration.ZERO).withoutStackTrace();
+        rs.onEvent(event, (RecordedEvent e) -> meter.mark());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    /**
+     * Minimum durations for each kind of event to be recorded; null to leave that event off.
+     */
+    public static class Thresholds {
+        private final Duration gcPause;
+        private final Duration safepoint;
+        private final Duration monitorEnter;
+        private final Duration threadPark;
+        private final Duration virtualThreadPinned;
+
+        /**
+         * @param gcPause GC pause phases
+         * @param safepoint reaching and leaving safepoints
+         * @param monitorEnter contended monitor enters
+         * @param threadPark thread parks
+         * @param virtualThreadPinned pinned virtual threads
+         */
+        public Thresholds(final Duration gcPause, final Duration safepoint, final Duration monitorEnter,
+                          final Duration threadPark, final Duration virtualThreadPinned) {
+            this.gcPause = gcPause;
+            this.safepoint = safepoint;
+            this.monitorEnter = monitorEnter;
+            this.threadPark = threadPark;
+            this.virtualThreadPinned = virtualThreadPinned;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * JIT compiler and code cache metrics, for telling when a JVM has warmed up and spotting a full code cache:
+ * <ul>
+ *     <li>{@code compile-time}: total time spent compiling, in milliseconds</li>
+ *     <li>{@code compile-time-rate}: milliseconds spent compiling per second, over at least the last
+ *     {@value #RATE_PERIOD_SECONDS} seconds; close to 0 once warm</li>
+ *     <li>{@code code-cache.used}, {@code max}, {@code fullness}: over all code cache segments; fullness is used over
+ *     max, from 0 to 1</li>
+ *     <li>{@code code-cache.<segment>.used}, {@code max}, {@code fullness}: per segment, e.g. {@code profiled-nmethods}
+ *     with a segmented code cache</li>
+ * </ul>
+ * The compile time metrics are absent if the JVM doesn't measure it. Compilation and deoptimization counts come from
+ * JFR, see {@link JfrMetrics}.
+ */
+public class JitMetricSet implements MetricSet {
+    private static final long RATE_PERIOD_SECONDS = 10;
+
+    private final Map<String, Metric> metricMap;
+
+    public JitMetricSet() {
+        this(ManagementFactory.getCompilationMXBean(), ManagementFactory.getMemoryPoolMXBeans(), Clock.defaultClock());
+    }
+
+    @VisibleForTesting
+    JitMetricSet(final CompilationMXBean compilation, final List<MemoryPoolMXBean> pools, final Clock clock) {
+        final Map<String, Metric> metrics = new HashMap<>();
+        if (compilation != null && compilation.isCompilationTimeMonitoringSupported()) {
+            metrics.put("compile-time", (Gauge<Long>) compilation::getTotalCompilationTime);
+            metrics.put("compile-time-rate", new CompileTimeRate(compilation, clock));
+        }
+
+        final List<MemoryPoolMXBean> codeCache = new ArrayList<>();
+        for (final MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.NON_HEAP && isCodeCache(pool.getName())) {
+                codeCache.add(pool);
+                final String prefix = "code-cache." + segmentName(pool.getName());
+                metrics.put(prefix + ".used", (Gauge<Long>) () -> pool.getUsage().getUsed());
+                metrics.put(prefix + ".max", (Gauge<Long>) () -> pool.getUsage().getMax());
+                metrics.put(prefix + ".fullness", (Gauge<Double>) () -> fullness(pool.getUsage().getUsed(),
+                        pool.getUsage().getMax()));
+            }
+        }
+        if (!codeCache.isEmpty()) {
+            metrics.put("code-cache.used", (Gauge<Long>) () -> used(codeCache));
+            metrics.put("code-cache.max", (Gauge<Long>) () -> max(codeCache));
+            metrics.put("code-cache.fullness", (Gauge<Double>) () -> fullness(used(codeCache), max(codeCache)));
+        }
+        metricMap = Collections.unmodifiableMap(metrics);
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return metricMap;
+    }
+
+    private static boolean isCodeCache(final String poolName) {
+        // "CodeHeap 'profiled nmethods'" etc. with a segmented code cache, else "Code Cache"
+        return poolName.startsWith("CodeHeap") || "Code Cache".equals(poolName);
+    }
+
+    @VisibleForTesting
+    static String segmentName(final String poolName) {
+        final int quote = poolName.indexOf('\'');
+        if (quote < 0) {
+            return "all";
+        }
+        return poolName.substring(quote + 1).replace("'", "").trim().toLowerCase(Locale.ROOT).replace(' ', '-');
+    }
+
+    private static long used(final List<MemoryPoolMXBean> pools) {
+        long result = 0;
+        for (final MemoryPoolMXBean pool : pools) {
+            result += pool.getUsage().getUsed();
+        }
+        return result;
+    }
+
+    private static long max(final List<MemoryPoolMXBean> pools) {
+        long result = 0;
+        for (final MemoryPoolMXBean pool : pools) {
+            final long max = pool.getUsage().getMax();
+            if (max < 0) {
+                return -1;
+            }
+            result += max;
+        }
+        return result;
+    }
+
+    private static Double fullness(final long used, final long max) {
+        return max > 0 ? (double) used / max : Double.NaN;
+    }
+
+    /**
+     * Compile time per second between loads, which are at least {@link #RATE_PERIOD_SECONDS} apart however often
+     * it's read.
+     */
+    private static final class CompileTimeRate extends CachedGauge<Double> {
+        private final CompilationMXBean compilation;
+        private final Clock clock;
+        private long lastNanos;
+        private long lastCompileMillis = -1;
+
+        CompileTimeRate(final CompilationMXBean compilation, final Clock clock) {
+            super(clock, RATE_PERIOD_SECONDS, TimeUnit.SECONDS);
+            this.compilation = compilation;
+            this.clock = clock;
+        }
+
+        @Override
+        protected synchronized Double loadValue() {
+            final long nowNanos = clock.getTick();
+            final long compileMillis = compilation.getTotalCompilationTime();
+            final Double result;
+            if (lastCompileMillis < 0 || nowNanos <= lastNanos) {
+                result = Double.NaN;
+            } else {
+                result = (compileMillis - lastCompileMillis) / ((nowNanos - lastNanos) / 1e9);
+            }
+            lastNanos = nowNanos;
+            lastCompileMillis = compileMillis;
+            return result;
+        }
+    }
+}
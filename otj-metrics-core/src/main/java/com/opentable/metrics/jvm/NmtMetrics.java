@@ -14,18 +14,20 @@
 package com.opentable.metrics.jvm;
 
 import java.time.Duration;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import org.slf4j.Logger;
@@ -37,58 +39,160 @@ import com.opentable.jvm.Memory;
  * If JVM argument {@code -XX:NativeMemoryTracking=summary} is present, will register NMT-related metrics.
  * If not, won't do anything.
  *
+ * <p>
+ * An NMT summary isn't free, so polling adapts: the first poll waits for {@link #INITIAL_DELAY} to let startup
+ * finish, then the period doubles on every poll where total committed memory is stable, up to
+ * {@link #MAX_PERIOD}, and drops back to {@link #MIN_PERIOD} as soon as it grows by {@value #GROWTH_PERCENT}% or
+ * more. {@code poll-duration} times each poll, and {@code poll-period} is the current period in milliseconds;
+ * like the category gauges, they are only registered once a poll has found NMT enabled.
  */
-public class NmtMetrics {
+public class NmtMetrics implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(NmtMetrics.class);
-    private static final Duration REFRESH_PERIOD = Duration.ofSeconds(10);
+    private static final Duration INITIAL_DELAY = Duration.ofMinutes(1);
+    @VisibleForTesting
+    static final Duration MIN_PERIOD = Duration.ofSeconds(10);
+    @VisibleForTesting
+    static final Duration MAX_PERIOD = Duration.ofMinutes(5);
+    private static final int GROWTH_PERCENT = 1;
 
     private final String prefix;
     private final MetricRegistry metrics;
 
-    private final ScheduledExecutorService exec = Executors.newScheduledThreadPool(
-        1,
-        new ThreadFactoryBuilder()
-            .setNameFormat("nmt-fetcher-%d")
-            .setDaemon(true)
-            .build()
-    );
-
-    private final ConcurrentMap<String, AtomicLong> gauges = new ConcurrentHashMap<>();
+    // Only touched by the polling thread
+    private final Map<String, CategoryGauges> gauges = new HashMap<>();
+    private long lastCommitted = -1;
+    private long totalCommitted;
+    private Timer pollDuration;
+    private volatile Duration period = MIN_PERIOD;
+    // Guarded by this
+    private ScheduledExecutorService scheduler;
+    private boolean ownScheduler;
+    private ScheduledFuture<?> task;
+    private boolean closed;
 
     public NmtMetrics(final String metricNamePrefix, final MetricRegistry metrics) {
         prefix = metricNamePrefix;
         this.metrics = metrics;
     }
 
+    /**
+     * Start polling on a scheduler of our own, which {@link #close()} shuts down.
+     */
     public synchronized void register() {
-        exec.scheduleAtFixedRate(this::poll, 0, REFRESH_PERIOD.toMillis(), TimeUnit.MILLISECONDS);
+        if (scheduler != null) {
+            return;
+        }
+        register(Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("nmt-fetcher-%d")
+                .setDaemon(true)
+                .build()));
+        ownScheduler = true;
     }
 
-    private void setGaugeValue(String metricName, long value) {
-        AtomicLong gauge = this.gauges.get(metricName);
-        if (gauge == null) {
-            AtomicLong newGauge = new AtomicLong(value);
-            gauge = this.gauges.putIfAbsent(metricName, newGauge);
-            if (gauge == null) {
-                metrics.register(metricName, (Gauge<Long>) newGauge::longValue);
-                return;
-            }
+    /**
+     * Start polling.
+     * @param pollScheduler where to poll; not shut down by {@link #close()}
+     */
+    public synchronized void register(final ScheduledExecutorService pollScheduler) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = pollScheduler;
+        schedule(INITIAL_DELAY);
+    }
+
+    /**
+     * Stop polling.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        if (ownScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private synchronized void schedule(final Duration delay) {
+        if (!closed) {
+            task = scheduler.schedule(this::poll, delay.toMillis(), TimeUnit.MILLISECONDS);
         }
-        gauge.set(value);
     }
 
     private void poll() {
         try {
-            Optional.ofNullable(Memory.getNmt())
+            final long start = System.nanoTime();
+            totalCommitted = 0;
+            final boolean enabled = Optional.ofNullable(Memory.getNmt())
                 .map(i -> i.categories)
-                .orElse(Collections.emptyMap())
-                .forEach((key, value) -> {
-                    final String fullMetricName = prefix + "." + key.toLowerCase(Locale.ROOT).replaceAll(" ", "-");
-                    setGaugeValue(fullMetricName + ".reserved", value.reserved);
-                    setGaugeValue(fullMetricName + ".committed", value.committed);
-                });
+                .map(categories -> {
+                    categories.forEach((key, value) -> {
+                        gauges.computeIfAbsent(key, this::newCategory).update(value.reserved, value.committed);
+                        totalCommitted += value.committed;
+                    });
+                    return true;
+                })
+                .orElse(false);
+            if (!enabled) {
+                // Nothing to register; keep checking, but back off as if stable
+                period = nextPeriod(period, -1, 0);
+                return;
+            }
+            if (pollDuration == null) {
+                pollDuration = metrics.timer(MetricRegistry.name(prefix, "poll-duration"));
+                metrics.register(MetricRegistry.name(prefix, "poll-period"), (Gauge<Long>) () -> period.toMillis());
+            }
+            pollDuration.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            period = nextPeriod(period, lastCommitted, totalCommitted);
+            lastCommitted = totalCommitted;
         } catch (RuntimeException r) {
             LOG.error("Error polling NMT metrics", r);
+        } finally {
+            schedule(period);
+        }
+    }
+
+    /**
+     * @param current the period we've been polling at
+     * @param previous total committed memory at the previous poll, or -1 if this was the first
+     * @param latest total committed memory now
+     * @return the period until the next poll
+     */
+    @VisibleForTesting
+    static Duration nextPeriod(final Duration current, final long previous, final long latest) {
+        if (previous >= 0 && latest > previous && (latest - previous) * 100 >= previous * GROWTH_PERCENT) {
+            return MIN_PERIOD;
+        }
+        final Duration doubled = current.multipliedBy(2);
+        return doubled.compareTo(MAX_PERIOD) > 0 ? MAX_PERIOD : doubled;
+    }
+
+    private CategoryGauges newCategory(final String category) {
+        final String name = prefix + "." + category.toLowerCase(Locale.ROOT).replaceAll(" ", "-");
+        final CategoryGauges result = new CategoryGauges();
+        metrics.register(name + ".reserved", (Gauge<Long>) result.reserved::get);
+        metrics.register(name + ".committed", (Gauge<Long>) result.committed::get);
+        return result;
+    }
+
+    /**
+     * Most categories don't move between polls, so a value is only written when it changed; reading first saves the
+     * volatile write, and readers' cached copies of the line, for the rest.
+     */
+    private static final class CategoryGauges {
+        private final AtomicLong reserved = new AtomicLong();
+        private final AtomicLong committed = new AtomicLong();
+
+        void update(final long newReserved, final long newCommitted) {
+            if (reserved.get() != newReserved) {
+                reserved.set(newReserved);
+            }
+            if (committed.get() != newCommitted) {
+                committed.set(newCommitted);
+            }
         }
     }
 }
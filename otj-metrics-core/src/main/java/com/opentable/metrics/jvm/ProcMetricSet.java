@@ -0,0 +1,326 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Process level metrics the MXBeans don't expose, from {@code /proc/self/status}, {@code /proc/self/stat} and
+ * {@code /proc/self/io}:
+ * <ul>
+ *     <li>{@code memory.rss}, {@code rss-peak}, {@code rss-anon}, {@code rss-file}, {@code swap}: resident and
+ *     swapped memory, in bytes; RSS well above committed heap plus NMT's total points at a native leak</li>
+ *     <li>{@code context-switches.voluntary}, {@code involuntary}: counts, summed over all threads</li>
+ *     <li>{@code page-faults.minor}, {@code major}: counts; major faults had to go to disk</li>
+ *     <li>{@code io.read-chars}, {@code write-chars}, {@code read-syscalls}, {@code write-syscalls},
+ *     {@code read-bytes}, {@code write-bytes}: I/O through syscalls, and what actually hit storage</li>
+ *     <li>{@code cpu.user-time}, {@code system-time}: CPU time used in user and kernel mode, in milliseconds</li>
+ * </ul>
+ * The three files are read once and shared by all the gauges for a second, so a reporting cycle costs three reads.
+ * They are parsed straight out of a reused buffer, without building strings.
+ *
+ * <p>
+ * Empty if there is no {@code /proc}; a gauge reports null if its file or field is missing or unreadable.
+ */
+public class ProcMetricSet implements MetricSet {
+    private static final Path DEFAULT_DIR = Paths.get("/proc/self");
+    private static final long CACHE_MILLIS = 1000;
+    private static final int INITIAL_BUFFER = 4096;
+
+    private static final int RSS = 0;
+    private static final int RSS_PEAK = 1;
+    private static final int RSS_ANON = 2;
+    private static final int RSS_FILE = 3;
+    private static final int SWAP = 4;
+    private static final int VOLUNTARY_SWITCHES = 5;
+    private static final int INVOLUNTARY_SWITCHES = 6;
+    private static final int MINOR_FAULTS = 7;
+    private static final int MAJOR_FAULTS = 8;
+    private static final int READ_CHARS = 9;
+    private static final int WRITE_CHARS = 10;
+    private static final int READ_SYSCALLS = 11;
+    private static final int WRITE_SYSCALLS = 12;
+    private static final int READ_BYTES = 13;
+    private static final int WRITE_BYTES = 14;
+    private static final int USER_TIME = 15;
+    private static final int SYSTEM_TIME = 16;
+    private static final int FIELD_COUNT = 17;
+
+    private static final KeyedField[] STATUS_FIELDS = {
+        new KeyedField("VmRSS", RSS, 1024),
+        new KeyedField("VmHWM", RSS_PEAK, 1024),
+        new KeyedField("RssAnon", RSS_ANON, 1024),
+        new KeyedField("RssFile", RSS_FILE, 1024),
+        new KeyedField("VmSwap", SWAP, 1024),
+        new KeyedField("voluntary_ctxt_switches", VOLUNTARY_SWITCHES, 1),
+        new KeyedField("nonvoluntary_ctxt_switches", INVOLUNTARY_SWITCHES, 1),
+    };
+    private static final KeyedField[] IO_FIELDS = {
+        new KeyedField("rchar", READ_CHARS, 1),
+        new KeyedField("wchar", WRITE_CHARS, 1),
+        new KeyedField("syscr", READ_SYSCALLS, 1),
+        new KeyedField("syscw", WRITE_SYSCALLS, 1),
+        new KeyedField("read_bytes", READ_BYTES, 1),
+        new KeyedField("write_bytes", WRITE_BYTES, 1),
+    };
+    // 1-based field numbers in /proc/self/stat, see proc(5)
+    private static final int STAT_MINFLT = 10;
+    private static final int STAT_MAJFLT = 12;
+    private static final int STAT_UTIME = 14;
+    private static final int STAT_STIME = 15;
+    // utime and stime are in USER_HZ ticks, which the kernel fixes at 100 per second for userspace
+    private static final long MILLIS_PER_TICK = 10;
+
+    private final Path statusFile;
+    private final Path statFile;
+    private final Path ioFile;
+    private final CachedGauge<long[]> snapshot;
+    private final Map<String, Metric> metricMap;
+
+    // Guarded by this
+    private byte[] buffer = new byte[INITIAL_BUFFER];
+
+    public ProcMetricSet() {
+        this(DEFAULT_DIR, Clock.defaultClock());
+    }
+
+    @VisibleForTesting
+    ProcMetricSet(final Path dir, final Clock clock) {
+        statusFile = dir.resolve("status");
+        statFile = dir.resolve("stat");
+        ioFile = dir.resolve("io");
+        snapshot = new CachedGauge<long[]>(clock, CACHE_MILLIS, TimeUnit.MILLISECONDS) {
+            @Override
+            protected long[] loadValue() {
+                return read();
+            }
+        };
+        if (!Files.isReadable(statusFile)) {
+            metricMap = Collections.emptyMap();
+            return;
+        }
+        metricMap = ImmutableMap.<String, Metric>builder()
+                .put("memory.rss", gauge(RSS))
+                .put("memory.rss-peak", gauge(RSS_PEAK))
+                .put("memory.rss-anon", gauge(RSS_ANON))
+                .put("memory.rss-file", gauge(RSS_FILE))
+                .put("memory.swap", gauge(SWAP))
+                .put("context-switches.voluntary", gauge(VOLUNTARY_SWITCHES))
+                .put("context-switches.involuntary", gauge(INVOLUNTARY_SWITCHES))
+                .put("page-faults.minor", gauge(MINOR_FAULTS))
+                .put("page-faults.major", gauge(MAJOR_FAULTS))
+                .put("io.read-chars", gauge(READ_CHARS))
+                .put("io.write-chars", gauge(WRITE_CHARS))
+                .put("io.read-syscalls", gauge(READ_SYSCALLS))
+                .put("io.write-syscalls", gauge(WRITE_SYSCALLS))
+                .put("io.read-bytes", gauge(READ_BYTES))
+                .put("io.write-bytes", gauge(WRITE_BYTES))
+                .put("cpu.user-time", gauge(USER_TIME))
+                .put("cpu.system-time", gauge(SYSTEM_TIME))
+                .build();
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return metricMap;
+    }
+
+    /**
+     * @return CPU time used in user mode, in milliseconds, or -1 if unknown
+     */
+    long userTimeMillis() {
+        return snapshot.getValue()[USER_TIME];
+    }
+
+    /**
+     * @return CPU time used in kernel mode, in milliseconds, or -1 if unknown
+     */
+    long systemTimeMillis() {
+        return snapshot.getValue()[SYSTEM_TIME];
+    }
+
+    private Gauge<Long> gauge(final int field) {
+        return () -> {
+            final long value = snapshot.getValue()[field];
+            return value < 0 ? null : value;
+        };
+    }
+
+    /**
+     * @return all fields, -1 for those we couldn't read
+     */
+    private synchronized long[] read() {
+        final long[] values = new long[FIELD_COUNT];
+        Arrays.fill(values, -1);
+        int length = readFile(statusFile);
+        if (length > 0) {
+            parseKeyed(length, STATUS_FIELDS, values);
+        }
+        length = readFile(statFile);
+        if (length > 0) {
+            parseStat(length, values);
+        }
+        length = readFile(ioFile);
+        if (length > 0) {
+            parseKeyed(length, IO_FIELDS, values);
+        }
+        return values;
+    }
+
+    /**
+     * Read the whole file into {@link #buffer}, growing it if needed.
+     * @return the number of bytes read, or -1 if the file can't be read
+     */
+    private int readFile(final Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            int length = 0;
+            while (true) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                final int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    return length;
+                }
+                length += read;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parse "Key:   value [kB]" lines, as in status and io.
+     */
+    private void parseKeyed(final int length, final KeyedField[] fields, final long[] values) {
+        int lineStart = 0;
+        while (lineStart < length) {
+            int colon = lineStart;
+            while (colon < length && buffer[colon] != ':' && buffer[colon] != '\n') {
+                colon++;
+            }
+            if (colon < length && buffer[colon] == ':') {
+                for (final KeyedField field : fields) {
+                    if (field.matches(buffer, lineStart, colon)) {
+                        final long value = parseNumber(colon + 1, length);
+                        values[field.index] = value < 0 ? -1 : value * field.multiplier;
+                        break;
+                    }
+                }
+            }
+            lineStart = nextLine(colon, length);
+        }
+    }
+
+    /**
+     * Parse the single line of space separated fields in stat. The second one is the command name in parentheses,
+     * which may itself contain spaces and parentheses; so we count from the last ')'.
+     */
+    private void parseStat(final int length, final long[] values) {
+        int pos = length - 1;
+        while (pos >= 0 && buffer[pos] != ')') {
+            pos--;
+        }
+        if (pos < 0) {
+            return;
+        }
+        // Field 3 starts after ") "
+        int fieldNumber = 2;
+        for (pos++; pos < length && fieldNumber < STAT_STIME; pos++) {
+            if (buffer[pos] != ' ') {
+                continue;
+            }
+            fieldNumber++;
+            if (fieldNumber == STAT_MINFLT) {
+                values[MINOR_FAULTS] = parseNumber(pos + 1, length);
+            } else if (fieldNumber == STAT_MAJFLT) {
+                values[MAJOR_FAULTS] = parseNumber(pos + 1, length);
+            } else if (fieldNumber == STAT_UTIME) {
+                values[USER_TIME] = millis(parseNumber(pos + 1, length));
+            } else if (fieldNumber == STAT_STIME) {
+                values[SYSTEM_TIME] = millis(parseNumber(pos + 1, length));
+            }
+        }
+    }
+
+    private static long millis(final long ticks) {
+        return ticks < 0 ? -1 : ticks * MILLIS_PER_TICK;
+    }
+
+    /**
+     * @return the unsigned decimal number at {@code from}, after any blanks; -1 if there isn't one
+     */
+    private long parseNumber(final int from, final int length) {
+        int pos = from;
+        while (pos < length && (buffer[pos] == ' ' || buffer[pos] == '\t')) {
+            pos++;
+        }
+        long value = 0;
+        final int start = pos;
+        while (pos < length && buffer[pos] >= '0' && buffer[pos] <= '9') {
+            value = value * 10 + (buffer[pos] - '0');
+            pos++;
+        }
+        return pos == start ? -1 : value;
+    }
+
+    private int nextLine(final int from, final int length) {
+        int pos = from;
+        while (pos < length && buffer[pos] != '\n') {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    private static final class KeyedField {
+        private final byte[] key;
+        private final int index;
+        private final long multiplier;
+
+        KeyedField(final String key, final int index, final long multiplier) {
+            this.key = key.getBytes(StandardCharsets.US_ASCII);
+            this.index = index;
+            this.multiplier = multiplier;
+        }
+
+        boolean matches(final byte[] buffer, final int start, final int end) {
+            if (end - start != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (buffer[start + i] != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.util.Locale;
+
+/**
+ * Groups threads by name, so that e.g. all the threads of one pool report together.
+ */
+final class ThreadNames {
+    static final String UNNAMED = "unnamed";
+
+    private ThreadNames() {
+    }
+
+    /**
+     * Strips the trailing thread number: {@code default-pool-42} and {@code default-pool-7} are both
+     * {@code default-pool}; {@code ForkJoinPool-1-worker-3} is {@code forkjoinpool-1-worker}.
+     * The result is lower-cased and usable as a metric name part.
+     *
+     * @param threadName the thread name
+     * @return the group the thread belongs to
+     */
+    static String group(String threadName) {
+        if (threadName == null || threadName.isEmpty()) {
+            return UNNAMED;
+        }
+        int end = threadName.length();
+        while (end > 0 && isSuffixChar(threadName.charAt(end - 1))) {
+            end--;
+        }
+        final String group = end == 0 ? threadName : threadName.substring(0, end);
+        return group.toLowerCase(Locale.ROOT).replace(' ', '-').replace('.', '_');
+    }
+
+    private static boolean isSuffixChar(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '_' || c == '#' || c == ' ' || c == '.';
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.CachedGauge;
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Drop-in replacement for Dropwizard's {@code ThreadStatesGaugeSet}, with the same metric names, that doesn't dump
+ * every thread once per gauge. All gauges, deadlocks included, are derived from one {@code getThreadInfo} pass
+ * without stacks, which is kept for a second so a whole reporting cycle shares it. Deadlocks are the cycles of
+ * threads blocked on a monitor or lock owned by the next thread of the cycle; as the infos aren't taken atomically,
+ * a cycle is only as exact as the snapshot, but a real deadlock shows up in every snapshot after it forms.
+ * <ul>
+ *     <li>{@code new.count}, {@code runnable.count}, {@code blocked.count}, {@code waiting.count},
+ *     {@code timed_waiting.count}, {@code terminated.count}: threads per state</li>
+ *     <li>{@code count}, {@code daemon.count}, {@code peak.count}, {@code total_started.count}</li>
+ *     <li>{@code deadlock.count}, {@code deadlocks}: deadlocked threads, and a description of each</li>
+ *     <li>{@code pools}: number of threads per group of alike named threads (see {@link ThreadNames#group}); this is
+ *     a map, so it only shows up on the HTTP endpoints</li>
+ * </ul>
+ */
+public class ThreadSnapshotMetricSet implements MetricSet {
+    private static final long CACHE_MILLIS = 1000;
+
+    private final ThreadMXBean threads;
+    private final CachedGauge<Snapshot> snapshot;
+
+    public ThreadSnapshotMetricSet() {
+        this(ManagementFactory.getThreadMXBean(), Clock.defaultClock());
+    }
+
+    @VisibleForTesting
+    ThreadSnapshotMetricSet(final ThreadMXBean threads, final Clock clock) {
+        this.threads = threads;
+        this.snapshot = new CachedGauge<Snapshot>(clock, CACHE_MILLIS, TimeUnit.MILLISECONDS) {
+            @Override
+            protected Snapshot loadValue() {
+                return take();
+            }
+        };
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        final Map<String, Metric> gauges = new HashMap<>();
+        for (final Thread.State state : Thread.State.values()) {
+            gauges.put(MetricRegistry.name(state.toString().toLowerCase(Locale.ROOT), "count"),
+                    (Gauge<Integer>) () -> snapshot.getValue().byState[state.ordinal()]);
+        }
+        gauges.put("count", (Gauge<Integer>) () -> snapshot.getValue().count);
+        gauges.put("daemon.count", (Gauge<Integer>) () -> snapshot.getValue().daemon);
+        gauges.put("peak.count", (Gauge<Integer>) () -> snapshot.getValue().peak);
+        gauges.put("total_started.count", (Gauge<Long>) () -> snapshot.getValue().totalStarted);
+        gauges.put("deadlock.count", (Gauge<Integer>) () -> snapshot.getValue().deadlocks.size());
+        gauges.put("deadlocks", (Gauge<Set<String>>) () -> snapshot.getValue().deadlocks);
+        gauges.put("pools", (Gauge<Map<String, Integer>>) () -> snapshot.getValue().pools);
+        return Collections.unmodifiableMap(gauges);
+    }
+
+    private Snapshot take() {
+        final ThreadInfo[] infos = threads.getThreadInfo(threads.getAllThreadIds(), 0);
+        final int[] byState = new int[Thread.State.values().length];
+        final Map<String, Integer> pools = new TreeMap<>();
+        final Map<Long, ThreadInfo> byId = new HashMap<>();
+        int count = 0;
+        int daemon = 0;
+        for (final ThreadInfo info : infos) {
+            if (info == null) {
+                // Died since getAllThreadIds
+                continue;
+            }
+            count++;
+            byId.put(info.getThreadId(), info);
+            byState[info.getThreadState().ordinal()]++;
+            if (info.isDaemon()) {
+                daemon++;
+            }
+            pools.merge(ThreadNames.group(info.getThreadName()), 1, Integer::sum);
+        }
+        return new Snapshot(byState, count, daemon, threads.getPeakThreadCount(),
+                threads.getTotalStartedThreadCount(), deadlocks(byId), Collections.unmodifiableMap(pools));
+    }
+
+    /**
+     * Follows each thread to the owner of the lock it's blocked on; a chain that comes back onto itself is a deadlock.
+     * Timed waits are left out, they give up by themselves.
+     */
+    private static Set<String> deadlocks(final Map<Long, ThreadInfo> byId) {
+        final Set<Long> visited = new HashSet<>();
+        final Set<String> result = new HashSet<>();
+        for (final ThreadInfo start : byId.values()) {
+            final List<ThreadInfo> chain = new ArrayList<>();
+            final Set<Long> onChain = new HashSet<>();
+            ThreadInfo current = start;
+            while (current != null && !visited.contains(current.getThreadId())) {
+                visited.add(current.getThreadId());
+                onChain.add(current.getThreadId());
+                chain.add(current);
+                current = blockedOn(current, byId);
+            }
+            if (current != null && onChain.contains(current.getThreadId())) {
+                for (final ThreadInfo info : chain.subList(chain.indexOf(current), chain.size())) {
+                    result.add(String.format("%s locked on %s (owned by %s)",
+                            info.getThreadName(), info.getLockName(), info.getLockOwnerName()));
+                }
+            }
+        }
+        return result.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(result);
+    }
+
+    private static ThreadInfo blockedOn(final ThreadInfo info, final Map<Long, ThreadInfo> byId) {
+        final Thread.State state = info.getThreadState();
+        if (info.getLockOwnerId() < 0 || (state != Thread.State.BLOCKED && state != Thread.State.WAITING)) {
+            return null;
+        }
+        return byId.get(info.getLockOwnerId());
+    }
+
+    private static final class Snapshot {
+        private final int[] byState;
+        private final int count;
+        private final int daemon;
+        private final int peak;
+        private final long totalStarted;
+        private final Set<String> deadlocks;
+        private final Map<String, Integer> pools;
+
+        Snapshot(final int[] byState, final int count, final int daemon, final int peak, final long totalStarted,
+                 final Set<String> deadlocks, final Map<String, Integer> pools) {
+            this.byState = byState;
+            this.count = count;
+            this.daemon = daemon;
+            this.peak = peak;
+            this.totalStarted = totalStarted;
+            this.deadlocks = deadlocks;
+            this.pools = pools;
+        }
+    }
+}
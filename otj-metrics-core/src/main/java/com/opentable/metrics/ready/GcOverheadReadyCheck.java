@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.ready;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.opentable.metrics.common.CheckController;
+import com.opentable.metrics.health.GcOverheadEvent.Level;
+import com.opentable.metrics.health.GcOverheadMonitor;
+
+/**
+ * Takes the instance out of rotation while GC overhead, as classified by {@link GcOverheadMonitor}, is critical, so
+ * the load balancer gives it room to recover; above the warn threshold it stays ready, with a {@code WARN:} message.
+ */
+@Named("gcOverheadReadyCheck")
+class GcOverheadReadyCheck extends ReadyCheck {
+    private final GcOverheadMonitor monitor;
+
+    @Inject
+    GcOverheadReadyCheck(final GcOverheadMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    protected Result check() {
+        final Level level = monitor.getLevel();
+        if (level == Level.OK) {
+            return Result.ready();
+        }
+        if (level == Level.WARN) {
+            return Result.ready(CheckController.WARN_PREFIX + monitor.describeLevel());
+        }
+        return Result.unready(monitor.describeLevel());
+    }
+}
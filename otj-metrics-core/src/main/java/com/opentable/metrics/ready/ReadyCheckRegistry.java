@@ -15,7 +15,7 @@ package com.opentable.metrics.ready;
 
 import java.time.Duration;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -23,33 +23,33 @@ import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Function;
 
 import javax.annotation.PreDestroy;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.opentable.concurrent.OTExecutors;
+import com.opentable.metrics.common.TimedChecks;
 
 /**
  * A registry for ready checks.
  */
 public class ReadyCheckRegistry {
-    private static final Logger LOGGER = LoggerFactory.getLogger(ReadyCheckRegistry.class);
     private static final int ASYNC_EXECUTOR_POOL_SIZE = 2;
 
     private final ConcurrentMap<String, ReadyCheck> readyChecks;
     private final List<ReadyCheckRegistryListener> listeners;
     private final ScheduledExecutorService asyncExecutorService;
+    private final TimedChecks<Result> timedChecks;
     private final Object lock = new Object();
 
     /**
@@ -74,9 +74,28 @@ public class ReadyCheckRegistry {
      * @param asyncExecutorService executor service for async ready check executions
      */
     public ReadyCheckRegistry(ScheduledExecutorService asyncExecutorService) {
+        this(asyncExecutorService, null, name -> null, null);
+    }
+
+    /**
+     * Creates a new {@link ReadyCheckRegistry} whose {@link #runReadyChecks(ExecutorService)} gives up on checks
+     * after a timeout.
+     *
+     * @param metrics       registry for the {@code ready-check.<name>.timeouts} meters
+     * @param checkTimeouts check name &rarr; how long to wait for it, or null for no limit
+     * @param totalTimeout  how long to wait for all checks, or null for no limit
+     */
+    public ReadyCheckRegistry(MetricRegistry metrics, Function<String, Duration> checkTimeouts, Duration totalTimeout) {
+        this(createExecutorService(ASYNC_EXECUTOR_POOL_SIZE), metrics, checkTimeouts, totalTimeout);
+    }
+
+    private ReadyCheckRegistry(ScheduledExecutorService asyncExecutorService, MetricRegistry metrics,
+                               Function<String, Duration> checkTimeouts, Duration totalTimeout) {
         this.readyChecks = new ConcurrentHashMap<>();
         this.listeners = new CopyOnWriteArrayList<>();
         this.asyncExecutorService = asyncExecutorService;
+        this.timedChecks = new TimedChecks<>(metrics, ReadyConfiguration.READY_CHECK_POOL_NAME, checkTimeouts,
+                totalTimeout, timeout -> Result.unready("timed out after %s", timeout), Result::unready);
     }
 
     /**
@@ -186,29 +205,16 @@ public class ReadyCheckRegistry {
 
     /**
      * Runs the registered ready checks matching the filter in parallel and returns a map of the results.
+     * A check that doesn't finish within its timeout, if any, is reported as unready, and left running; until it
+     * finishes, later calls wait on it rather than running it again.
      *
      * @param executor object to launch and track ready checks progress
      * @return a map of the ready check results
      */
     public SortedMap<String, Result> runReadyChecks(ExecutorService executor) {
-        final Map<String, Future<Result>> futures = new HashMap<>();
-        for (final Map.Entry<String, ReadyCheck> entry : readyChecks.entrySet()) {
-            final String name = entry.getKey();
-            final ReadyCheck readyCheck = entry.getValue();
-            futures.put(name, executor.submit(readyCheck::execute));
-        }
-
-        final SortedMap<String, Result> results = new TreeMap<>();
-        for (Map.Entry<String, Future<Result>> entry : futures.entrySet()) {
-            try {
-                results.put(entry.getKey(), entry.getValue().get());
-            } catch (Exception e) {
-                LOGGER.warn("Error executing ready check {}", entry.getKey(), e);
-                results.put(entry.getKey(), Result.unready(e));
-            }
-        }
-
-        return Collections.unmodifiableSortedMap(results);
+        final Map<String, Callable<Result>> checks = new LinkedHashMap<>();
+        readyChecks.forEach((name, readyCheck) -> checks.put(name, readyCheck::execute));
+        return timedChecks.run(executor, checks);
     }
 
     private void onReadyCheckAdded(String name, ReadyCheck readyCheck) {
@@ -15,30 +15,44 @@ package com.opentable.metrics.ready;
 
 import javax.inject.Named;
 
+import com.codahale.metrics.MetricRegistry;
+
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
 
 import com.opentable.concurrent.ThreadPoolBuilder;
 import com.opentable.concurrent.ThreadPoolConfig;
+import com.opentable.metrics.common.TimedChecks;
+import com.opentable.metrics.health.GcOverheadMonitor;
 
 @Configuration
 @Import({
         ReadyRegistrar.class,
         MediocreReadyCheck.class,
+        WarmUpReadyCheck.class,
+        GcOverheadMonitor.class,
+        GcOverheadReadyCheck.class,
         ReadinessTransitionLogger.class,
 })
 public class ReadyConfiguration {
     public static final String READY_CHECK_PATH = "/infra/ready";
     public static final String READY_CHECK_POOL_NAME = "ready-check";
+    private static final String CONFIG_PREFIX = "ot.metrics.ready.";
 
     /**
-     * Create a ready check registry to register ready checks.
+     * Create a ready check registry to register ready checks. Each check is given up on after
+     * "ot.metrics.ready.timeout.&lt;name&gt;", else "ot.metrics.ready.check-timeout" (default 10 seconds), and all
+     * of them after "ot.metrics.ready.total-timeout" (default 15 seconds).
+     * @param metrics metric registry for the per check timeout meters
+     * @param env configuration for the timeouts
      * @return ready check registry
      */
     @Bean
-    public ReadyCheckRegistry getReadyCheckRegistry() {
-        return new ReadyCheckRegistry();
+    public ReadyCheckRegistry getReadyCheckRegistry(final MetricRegistry metrics, final Environment env) {
+        return new ReadyCheckRegistry(metrics, TimedChecks.checkTimeouts(env, CONFIG_PREFIX),
+                TimedChecks.totalTimeout(env, CONFIG_PREFIX));
     }
 
     @Bean
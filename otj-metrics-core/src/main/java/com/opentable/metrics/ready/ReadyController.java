@@ -20,7 +20,6 @@ import java.util.concurrent.ExecutorService;
 import javax.inject.Inject;
 import javax.inject.Named;
 
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationEvent;
@@ -50,13 +49,7 @@ public class ReadyController extends CheckController<Result> {
     }
 
     private static CheckState resToState(Result r) {
-        if (r.isReady()) {
-            return CheckState.HEALTHY;
-        }
-        if (StringUtils.startsWithIgnoreCase(r.getMessage(), WARN_PREFIX)) {
-            return CheckState.WARNING;
-        }
-        return CheckState.CRITICAL;
+        return checkState(r.isReady(), r.getMessage());
     }
 
     @Override
@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.ready;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counting;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.annotations.VisibleForTesting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+
+import com.opentable.metrics.common.CheckController;
+
+/**
+ * Holds a new instance back from full traffic until the JIT has warmed up, rather than going ready as soon as the
+ * Spring context is, like {@link MediocreReadyCheck}. Off unless {@code ot.metrics.warm-up.enabled} is set; when
+ * on, it is unready after the context is refreshed until all of:
+ * <ul>
+ *     <li>{@code min-time} (default 30 seconds) has passed</li>
+ *     <li>the JIT spends at most {@code max-compile-rate} (default 50) milliseconds compiling per second, per the
+ *     {@code jvm.jit.compile-time-rate} gauge; skipped if that isn't registered</li>
+ *     <li>at least {@code requests} (default 0) requests have completed, per the {@code http-server.requests} timer,
+ *     e.g. synthetic warm-up requests the service sends itself</li>
+ * </ul>
+ * After {@code max-time} (default 5 minutes) it gives up waiting and goes ready anyway, so a pod that never settles
+ * doesn't stay out of rotation. Once warm it stays ready. With {@code warn-only}, a not yet warm instance's message
+ * starts with {@code "WARN: "}, so {@link ReadyController} reports it as {@code WARNING} (HTTP 400) rather than
+ * {@code CRITICAL} (HTTP 500), like a health check warning.
+ *
+ * <p>
+ * The message lists only the pending criteria and their thresholds, not the current values, so that it only changes
+ * (and {@link ReadyController} only logs it) when a criterion is met.
+ */
+@Named("warmUpReadyCheck")
+class WarmUpReadyCheck extends ReadyCheck {
+    private static final Logger LOG = LoggerFactory.getLogger(WarmUpReadyCheck.class);
+    // Registered by JvmMetricsConfiguration and OTInstrumentedHandler respectively
+    private static final String COMPILE_RATE_GAUGE = "jvm.jit.compile-time-rate";
+    private static final String REQUESTS_TIMER = "http-server.requests";
+
+    private final MetricRegistry metrics;
+    private final Clock clock;
+    private final boolean enabled;
+    private final boolean warnOnly;
+    private final Duration minTime;
+    private final Duration maxTime;
+    private final double maxCompileRate;
+    private final long minRequests;
+
+    private volatile long startNanos = -1;
+    private volatile boolean warm;
+
+    @Inject
+    WarmUpReadyCheck(final MetricRegistry metrics,
+                     @Value("${ot.metrics.warm-up.enabled:false}") final boolean enabled,
+                     @Value("${ot.metrics.warm-up.warn-only:false}") final boolean warnOnly,
+                     @Value("${ot.metrics.warm-up.min-time:PT30S}") final Duration minTime,
+                     @Value("${ot.metrics.warm-up.max-time:PT5M}") final Duration maxTime,
+                     @Value("${ot.metrics.warm-up.max-compile-rate:50}") final double maxCompileRate,
+                     @Value("${ot.metrics.warm-up.requests:0}") final long minRequests) {
+        this(metrics, Clock.defaultClock(), enabled, warnOnly, minTime, maxTime, maxCompileRate, minRequests);
+    }
+
+    @VisibleForTesting
+    WarmUpReadyCheck(final MetricRegistry metrics, final Clock clock, final boolean enabled, final boolean warnOnly,
+                     final Duration minTime, final Duration maxTime, final double maxCompileRate,
+                     final long minRequests) {
+        this.metrics = metrics;
+        this.clock = clock;
+        this.enabled = enabled;
+        this.warnOnly = warnOnly;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.maxCompileRate = maxCompileRate;
+        this.minRequests = minRequests;
+    }
+
+    @EventListener
+    public void refreshed(final ContextRefreshedEvent event) {
+        started();
+    }
+
+    @VisibleForTesting
+    void started() {
+        if (startNanos < 0) {
+            startNanos = clock.getTick();
+        }
+    }
+
+    @Override
+    protected Result check() {
+        if (!enabled || warm) {
+            return Result.ready();
+        }
+        if (startNanos < 0) {
+            return Result.unready("context not yet refreshed");
+        }
+        final Duration elapsed = Duration.ofNanos(clock.getTick() - startNanos);
+        final List<String> waitingFor = waitingFor(elapsed);
+        if (waitingFor.isEmpty()) {
+            LOG.info("warmed up after {}", elapsed);
+            warm = true;
+            return Result.ready();
+        }
+        if (elapsed.compareTo(maxTime) >= 0) {
+            LOG.warn("still not warm after {}, going ready anyway; waiting for {}", elapsed, waitingFor);
+            warm = true;
+            return Result.ready();
+        }
+        final String message = "warming up, waiting for " + waitingFor;
+        return Result.unready(warnOnly ? CheckController.WARN_PREFIX + message : message);
+    }
+
+    private List<String> waitingFor(final Duration elapsed) {
+        final List<String> result = new ArrayList<>();
+        if (elapsed.compareTo(minTime) < 0) {
+            result.add("min-time " + minTime);
+        }
+        final Metric compileRate = metrics.getMetrics().get(COMPILE_RATE_GAUGE);
+        if (compileRate instanceof Gauge) {
+            final Object rate = ((Gauge<?>) compileRate).getValue();
+            // NaN until the gauge has two samples
+            if (!(rate instanceof Number) || !(((Number) rate).doubleValue() <= maxCompileRate)) {
+                result.add(String.format("compile rate <= %s ms/s", maxCompileRate));
+            }
+        }
+        if (minRequests > 0) {
+            final Metric requests = metrics.getMetrics().get(REQUESTS_TIMER);
+            final long count = requests instanceof Counting ? ((Counting) requests).getCount() : 0;
+            if (count < minRequests) {
+                result.add(String.format("requests >= %d", minRequests));
+            }
+        }
+        return result;
+    }
+}
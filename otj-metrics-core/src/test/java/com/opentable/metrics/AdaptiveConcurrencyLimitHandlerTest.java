@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitHandlerTest {
+    private long now = System.nanoTime();
+
+    @Test
+    public void rejectsOverLimit() {
+        final AdaptiveConcurrencyLimitHandler limiter = limiter(20);
+        for (int i = 0; i < 20; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+        assertThat(limiter.tryAcquire()).isFalse();
+        limiter.release(5, now);
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void growsWhileLatencyHealthy() {
+        final AdaptiveConcurrencyLimitHandler limiter = limiter(20);
+        for (int i = 0; i < 10; i++) {
+            window(limiter, 20, 10);
+        }
+        assertThat(limiter.getLimit()).isGreaterThan(20);
+    }
+
+    @Test
+    public void shrinksWhenLatencyRises() {
+        final AdaptiveConcurrencyLimitHandler limiter = limiter(100);
+        window(limiter, 100, 10);
+        for (int i = 0; i < 10; i++) {
+            window(limiter, 100, 100);
+        }
+        assertThat(limiter.getLimit()).isLessThan(100).isGreaterThanOrEqualTo(10);
+    }
+
+    @Test
+    public void doesNotGrowWhenIdle() {
+        final AdaptiveConcurrencyLimitHandler limiter = limiter(100);
+        for (int i = 0; i < 10; i++) {
+            window(limiter, 10, 10);
+        }
+        assertThat(limiter.getLimit()).isLessThanOrEqualTo(100);
+    }
+
+    private AdaptiveConcurrencyLimitHandler limiter(int initial) {
+        return new AdaptiveConcurrencyLimitHandler(new MetricRegistry(), "test", initial, 10, 1000, 1.5);
+    }
+
+    /** Run {@code concurrency} requests at once, each taking {@code latency} ms, then close out the window. */
+    private void window(AdaptiveConcurrencyLimitHandler limiter, int concurrency, long latency) {
+        int acquired = 0;
+        while (acquired < concurrency && limiter.tryAcquire()) {
+            acquired++;
+        }
+        now += TimeUnit.SECONDS.toNanos(2);
+        for (int i = 0; i < acquired; i++) {
+            limiter.release(latency, now);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+public class ConcurrencyTrackerTest {
+    private long now = 123_456_789L;
+    private final ConcurrencyTracker tracker = new ConcurrencyTracker(() -> now);
+
+    @Test
+    public void timeWeightsInflight() {
+        // One request for the whole 10s, a second one for 5s of it
+        tracker.increment();
+        advance(5);
+        tracker.increment();
+        advance(5);
+        tracker.decrement();
+
+        final ConcurrencyTracker.Window window = tracker.roll();
+        assertThat(window.averageInflight).isCloseTo(1.5, within(0.001));
+        assertThat(window.peakInflight).isEqualTo(2);
+        // 0.1 req/s at a mean latency of 15s, so 2 at once would manage ~0.133 req/s
+        assertThat(window.impliedCapacity).isCloseTo(2 * 0.1 / 1.5, within(0.001));
+    }
+
+    @Test
+    public void countsStillActiveRequestsInEachWindow() {
+        tracker.increment();
+        advance(10);
+        assertThat(tracker.roll().averageInflight).isCloseTo(1, within(0.001));
+        advance(10);
+        tracker.increment();
+        advance(10);
+        final ConcurrencyTracker.Window window = tracker.roll();
+        assertThat(window.averageInflight).isCloseTo(1.5, within(0.001));
+        assertThat(window.peakInflight).isEqualTo(2);
+        assertThat(window.impliedCapacity).isZero();
+    }
+
+    @Test
+    public void peakResetsToCurrent() {
+        tracker.increment();
+        tracker.increment();
+        tracker.decrement();
+        advance(10);
+        assertThat(tracker.roll().peakInflight).isEqualTo(2);
+        advance(10);
+        assertThat(tracker.roll().peakInflight).isEqualTo(1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void registersGauges() {
+        final MetricRegistry registry = new MetricRegistry();
+        tracker.register(registry, "test");
+        final Gauge<Double> average = (Gauge<Double>) registry.getGauges().get("test.average-inflight");
+        tracker.increment();
+        advance(10);
+        tracker.roll();
+        assertThat(average.getValue()).isCloseTo(1, within(0.001));
+
+        // Reads don't roll the window
+        tracker.increment();
+        advance(10);
+        assertThat(average.getValue()).isCloseTo(1, within(0.001));
+        tracker.roll();
+        assertThat(average.getValue()).isCloseTo(2, within(0.001));
+        assertThat(registry.getGauges()).containsKeys("test.peak-inflight", "test.implied-capacity");
+    }
+
+    @Test
+    public void stopLeavesSchedulerRunning() {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        scheduler.setRemoveOnCancelPolicy(true);
+        try {
+            tracker.start(scheduler);
+            tracker.start(scheduler);
+            assertThat(scheduler.getQueue()).hasSize(1);
+            tracker.stop();
+            assertThat(scheduler.getQueue()).isEmpty();
+            assertThat(scheduler.isShutdown()).isFalse();
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void advance(long seconds) {
+        now += TimeUnit.SECONDS.toNanos(seconds);
+    }
+}
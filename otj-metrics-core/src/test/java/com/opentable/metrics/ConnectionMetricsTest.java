@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Test;
+
+public class ConnectionMetricsTest {
+    private final MetricRegistry registry = new MetricRegistry();
+    private final Server server = new Server();
+
+    @After
+    public void after() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void instrumentsConnectorsAddedLater() throws Exception {
+        JettyServerMetricsConfiguration.addToConnectors(server, new ConnectionMetrics(registry, "test"));
+        final LocalConnector connector = new LocalConnector(server);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+
+        assertThat(connector.getBeans(ConnectionMetrics.class)).hasSize(1);
+        // Two requests on one keep-alive connection, which the second one closes
+        final String requests = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                + "GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+        final LocalConnector.LocalEndPoint endPoint = connector.executeRequest(requests);
+        endPoint.waitUntilClosed();
+
+        // Closing listeners run just after the end point closes; bytes-out is updated last
+        final Histogram bytesOut = registry.histogram("test.connections.bytes-out");
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (bytesOut.getCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        final Histogram perConnection = registry.histogram("test.connections.requests");
+        assertThat(registry.meter("test.connections.accepted").getCount()).isEqualTo(1);
+        assertThat(registry.counter("test.connections.open").getCount()).isZero();
+        assertThat(perConnection.getCount()).isEqualTo(1);
+        assertThat(perConnection.getSnapshot().getMax()).isEqualTo(2);
+        assertThat(registry.timer("test.connections.duration").getCount()).isEqualTo(1);
+        assertThat(registry.histogram("test.connections.bytes-in").getSnapshot().getMax()).isEqualTo(requests.length());
+        assertThat(bytesOut.getSnapshot().getMax()).isPositive();
+    }
+}
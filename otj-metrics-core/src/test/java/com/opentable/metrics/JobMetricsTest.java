@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import org.junit.Test;
+
+public class JobMetricsTest {
+    @Test
+    public void recordsQueueWaitAndDuration() throws Exception {
+        final MetricRegistry registry = new MetricRegistry();
+        final JobMetrics metrics = new JobMetrics(registry, "pool");
+        final AtomicBoolean ran = new AtomicBoolean();
+        final Runnable job = metrics.wrap(() -> ran.set(true));
+        TimeUnit.MILLISECONDS.sleep(5);
+        job.run();
+
+        assertThat(ran).isTrue();
+        final Timer queueWait = registry.timer("pool.queue-wait");
+        assertThat(queueWait.getCount()).isEqualTo(1);
+        assertThat(queueWait.getSnapshot().getMax()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(5));
+        assertThat(registry.timer("pool.job-duration").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void closesUnrunJobs() throws Exception {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final Runnable job = new JobMetrics(new MetricRegistry(), "pool").wrap(new CloseableJob(closed));
+        ((Closeable) job).close();
+        assertThat(closed).isTrue();
+    }
+
+    private static class CloseableJob implements Runnable, Closeable {
+        private final AtomicBoolean closed;
+
+        CloseableJob(AtomicBoolean closed) {
+            this.closed = closed;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        public void close() {
+            closed.set(true);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.eclipse.jetty.http.HttpTester;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadSheddingHandlerTest {
+    private final MetricRegistry registry = new MetricRegistry();
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong queueWait = new AtomicLong();
+    private Server server;
+    private LocalConnector connector;
+
+    @Before
+    public void before() throws Exception {
+        server = new Server();
+        connector = new LocalConnector(server);
+        server.addConnector(connector);
+        final LoadSheddingHandler shedder = new LoadSheddingHandler(registry, "test",
+                active::get, queueWait::get, 10, Duration.ofMillis(100));
+        shedder.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+                baseRequest.setHandled(true);
+                response.setStatus(HttpServletResponse.SC_OK);
+            }
+        });
+        server.setHandler(shedder);
+        server.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void passesWhenHealthy() throws Exception {
+        assertThat(get("/foo")).isEqualTo(200);
+        assertThat(registry.meter("test.load-shedding.shed").getCount()).isZero();
+    }
+
+    @Test
+    public void shedsOnActiveRequests() throws Exception {
+        active.set(11);
+        assertThat(get("/foo")).isEqualTo(503);
+        assertThat(registry.meter("test.load-shedding.shed").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shedsOnQueueWait() throws Exception {
+        queueWait.set(TimeUnit.MILLISECONDS.toNanos(101));
+        assertThat(get("/foo")).isEqualTo(503);
+    }
+
+    @Test
+    public void neverShedsChecks() throws Exception {
+        active.set(11);
+        assertThat(get("/health")).isEqualTo(200);
+        assertThat(get("/infra/health/group/foo")).isEqualTo(200);
+        assertThat(get("/infra/ready")).isEqualTo(200);
+    }
+
+    @Test
+    public void exemptsWholeSegmentsOnly() {
+        assertThat(LoadSheddingHandler.isExempt("/health")).isTrue();
+        assertThat(LoadSheddingHandler.isExempt("/infra/ready/group/foo")).isTrue();
+        assertThat(LoadSheddingHandler.isExempt("/healthy-cats")).isFalse();
+        assertThat(LoadSheddingHandler.isExempt("/infra/readyz")).isFalse();
+        assertThat(LoadSheddingHandler.isExempt(null)).isFalse();
+    }
+
+    private int get(String path) throws Exception {
+        final String raw = connector.getResponse("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+        return HttpTester.parseResponse(raw).getStatus();
+    }
+}
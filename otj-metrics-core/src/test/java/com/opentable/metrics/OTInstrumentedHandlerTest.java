@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import org.eclipse.jetty.http.HttpTester;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OTInstrumentedHandlerTest {
+    private static final long SUSPENDED_MILLIS = 300;
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private Server server;
+    private LocalConnector connector;
+
+    @Before
+    public void before() throws Exception {
+        server = new Server();
+        connector = new LocalConnector(server);
+        server.addConnector(connector);
+        final OTInstrumentedHandler instrumented = new OTInstrumentedHandler(registry, "test");
+        instrumented.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) {
+                baseRequest.setHandled(true);
+                if (request.getDispatcherType() == DispatcherType.ASYNC) {
+                    // Resumed: finish on this dispatch
+                    response.setStatus(HttpServletResponse.SC_OK);
+                    return;
+                }
+                final AsyncContext async = request.startAsync();
+                final boolean resume = "/resume".equals(target);
+                new Thread(() -> {
+                    sleep(SUSPENDED_MILLIS);
+                    if (resume) {
+                        async.dispatch();
+                    } else {
+                        ((HttpServletResponse) async.getResponse()).setStatus(HttpServletResponse.SC_OK);
+                        async.complete();
+                    }
+                }).start();
+            }
+        });
+        server.setHandler(instrumented);
+        server.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void completedFromAnotherThread() throws Exception {
+        assertThat(get("/complete")).isEqualTo(200);
+        assertSuspendedNotOnThread();
+    }
+
+    @Test
+    public void resumedThenCompleted() throws Exception {
+        assertThat(get("/resume")).isEqualTo(200);
+        assertSuspendedNotOnThread();
+        assertThat(registry.meter("test.async-dispatches").getCount()).isEqualTo(1);
+    }
+
+    private void assertSuspendedNotOnThread() throws InterruptedException {
+        final Timer requests = registry.timer("test.requests");
+        // Recorded, last of all, when the exchange completes, which may be just after the client has the response
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (requests.getCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(requests.getCount()).isEqualTo(1);
+        final Timer onThread = registry.timer("test.on-thread-time");
+        final Timer suspended = registry.timer("test.suspended-time");
+        assertThat(onThread.getCount()).isEqualTo(1);
+        assertThat(suspended.getCount()).isEqualTo(1);
+        final long gap = TimeUnit.MILLISECONDS.toNanos(SUSPENDED_MILLIS);
+        assertThat(suspended.getSnapshot().getMax()).isGreaterThanOrEqualTo(gap);
+        assertThat(onThread.getSnapshot().getMax()).isLessThan(gap);
+    }
+
+    private int get(String path) throws Exception {
+        final String raw = connector.getResponse(
+                "GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n", 5, TimeUnit.SECONDS);
+        return HttpTester.parseResponse(raw).getStatus();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreDispatchDelayTest {
+    // 1 acceptor and 1 selector take two of the threads, leaving these for requests
+    private static final int REQUEST_THREADS = 2;
+    private static final long WAIT_MILLIS = 200;
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private final CountDownLatch blocked = new CountDownLatch(REQUEST_THREADS);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Socket> sockets = new ArrayList<>();
+    private Server server;
+    private ServerConnector connector;
+
+    @Before
+    public void before() throws Exception {
+        final JettyServerMetricsConfiguration.OTQueuedThreadPool pool =
+                new JettyServerMetricsConfiguration.OTQueuedThreadPool(registry, 0);
+        pool.setName("test-pool");
+        pool.setMinThreads(REQUEST_THREADS + 2);
+        pool.setMaxThreads(REQUEST_THREADS + 2);
+        // Otherwise the selector could hand a read straight to a reserved thread
+        pool.setReservedThreads(0);
+        server = new Server(pool);
+        connector = new ServerConnector(server, 1, 1);
+        server.addConnector(connector);
+        JettyServerMetricsConfiguration.addToConnectors(server, new PreDispatchDelay(registry, "test"));
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws InterruptedException {
+                baseRequest.setHandled(true);
+                if ("/block".equals(target)) {
+                    blocked.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                response.setStatus(HttpServletResponse.SC_OK);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        release.countDown();
+        for (final Socket socket : sockets) {
+            socket.close();
+        }
+        server.stop();
+    }
+
+    @Test
+    public void includesWaitForSaturatedPool() throws Exception {
+        final List<Socket> blockers = new ArrayList<>();
+        for (int i = 0; i < REQUEST_THREADS; i++) {
+            blockers.add(send("/block"));
+        }
+        assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // Every request thread is busy, so this one's read waits in the queue
+        final Socket waiting = send("/fast");
+        TimeUnit.MILLISECONDS.sleep(WAIT_MILLIS);
+        release.countDown();
+        assertThat(readStatusLine(waiting)).contains("200");
+        for (final Socket blocker : blockers) {
+            assertThat(readStatusLine(blocker)).contains("200");
+        }
+
+        final Timer delay = registry.timer("test.pre-dispatch-delay");
+        assertThat(delay.getCount()).isEqualTo(REQUEST_THREADS + 1);
+        assertThat(delay.getSnapshot().getMax()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS));
+    }
+
+    @Test
+    public void smallWhenIdle() throws Exception {
+        release.countDown();
+        assertThat(readStatusLine(send("/fast"))).contains("200");
+        final Timer delay = registry.timer("test.pre-dispatch-delay");
+        assertThat(delay.getCount()).isEqualTo(1);
+        assertThat(delay.getSnapshot().getMax()).isLessThan(TimeUnit.MILLISECONDS.toNanos(WAIT_MILLIS));
+    }
+
+    private Socket send(String path) throws Exception {
+        final Socket socket = new Socket("localhost", connector.getLocalPort());
+        sockets.add(socket);
+        final OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    private static String readStatusLine(Socket socket) throws Exception {
+        socket.setSoTimeout(5000);
+        final InputStream in = socket.getInputStream();
+        final StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+}
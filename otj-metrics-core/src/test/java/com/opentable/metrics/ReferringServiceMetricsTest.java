@@ -0,0 +1,87 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.opentable.httpheaders.OTHeaders;
+
+public class ReferringServiceMetricsTest {
+    private final MetricRegistry registry = new MetricRegistry();
+    private Server server;
+    private LocalConnector connector;
+
+    @Before
+    public void before() throws Exception {
+        server = new Server();
+        connector = new LocalConnector(server);
+        server.addConnector(connector);
+        final OTInstrumentedHandler instrumented = new OTInstrumentedHandler(registry, "test");
+        instrumented.addRequestListener(new ReferringServiceMetrics(registry, "test",
+                Arrays.asList("availability", "user.service")));
+        instrumented.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) {
+                baseRequest.setHandled(true);
+                response.setStatus(Integer.parseInt(target.substring(1)));
+            }
+        });
+        server.setHandler(instrumented);
+        server.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void tracksAllowedServices() throws Exception {
+        get("/200", "availability");
+        get("/503", "availability");
+        get("/404", "user.service");
+        assertThat(registry.timer("test.referring-service.availability.requests").getCount()).isEqualTo(2);
+        assertThat(registry.meter("test.referring-service.availability.5xx-responses").getCount()).isEqualTo(1);
+        assertThat(registry.meter("test.referring-service.user_service.4xx-responses").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void collapsesUnknownServices() throws Exception {
+        get("/200", "somebody-else");
+        get("/500", null);
+        assertThat(registry.timer("test.referring-service.unknown.requests").getCount()).isEqualTo(2);
+        assertThat(registry.meter("test.referring-service.unknown.5xx-responses").getCount()).isEqualTo(1);
+        assertThat(registry.getNames()).noneMatch(name -> name.contains("somebody-else"));
+    }
+
+    private void get(String path, String referringService) throws Exception {
+        final String header = referringService == null ? "" : OTHeaders.REFERRING_SERVICE + ": " + referringService + "\r\n";
+        connector.getResponse("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n" + header + "Connection: close\r\n\r\n");
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.junit.Test;
+
+public class SlowRequestSamplerTest {
+    private static final long START = 1_000_000L;
+
+    @Test
+    public void keepsSlowestPerInterval() {
+        final SlowRequestSampler sampler = sampler(START);
+        final SlowRequestSampler.Interval interval = sampler.intervalAt(START);
+        for (long duration : new long[] {5, 50, 1, 30, 40, 2, 60}) {
+            if (duration > interval.getThreshold()) {
+                interval.offer(sample(duration));
+            }
+        }
+        assertThat(interval.getThreshold()).isEqualTo(40);
+        assertThat(interval.snapshot().getRequests())
+                .extracting(SlowRequestSampler.Sample::getDurationMillis)
+                .containsExactly(60L, 50L, 40L);
+    }
+
+    @Test
+    public void rollsOverIntervals() {
+        final SlowRequestSampler sampler = sampler(START);
+        final SlowRequestSampler.Interval first = sampler.intervalAt(START);
+        first.offer(sample(10));
+        assertThat(first.getThreshold()).isEqualTo(-1);
+        assertThat(sampler.getLastInterval().getRequests()).isEmpty();
+
+        final SlowRequestSampler.Interval next = sampler.intervalAt(START + 10_000);
+        assertThat(next).isNotSameAs(first);
+        assertThat(next.getThreshold()).isEqualTo(-1);
+
+        final SlowRequestSampler.Snapshot last = sampler.getLastInterval();
+        assertThat(last.getStart()).isEqualTo(Instant.ofEpochMilli(START));
+        assertThat(last.getEnd()).isEqualTo(Instant.ofEpochMilli(START + 10_000));
+        assertThat(last.getRequests()).extracting(SlowRequestSampler.Sample::getDurationMillis).containsExactly(10L);
+    }
+
+    @Test
+    public void lastIntervalIsCompletedOne() {
+        final SlowRequestSampler sampler = sampler(START);
+        sampler.intervalAt(START + 1).offer(sample(10));
+        sampler.intervalAt(START + 12_000).offer(sample(20));
+        assertThat(sampler.getLastInterval().getRequests())
+                .extracting(SlowRequestSampler.Sample::getDurationMillis)
+                .containsExactly(10L);
+        assertThat(sampler.getCurrentInterval().getRequests())
+                .extracting(SlowRequestSampler.Sample::getDurationMillis)
+                .containsExactly(20L);
+    }
+
+    @Test
+    public void normalizesIds() {
+        assertThat(SlowRequestSampler.normalizePath("/restaurants/12345/reviews"))
+                .isEqualTo("/restaurants/{id}/reviews");
+        assertThat(SlowRequestSampler.normalizePath("/users/3f2504e0-4f89-11d3-9a0c-0305e82c3301"))
+                .isEqualTo("/users/{id}");
+        assertThat(SlowRequestSampler.normalizePath("/api/v2/feed/")).isEqualTo("/api/v2/feed/");
+        assertThat(SlowRequestSampler.normalizePath("/cafe/deadbeef")).isEqualTo("/cafe/deadbeef");
+        assertThat(SlowRequestSampler.normalizePath(null)).isEqualTo("/");
+        assertThat(SlowRequestSampler.normalizePath("/" + "a".repeat(500))).hasSize(200);
+    }
+
+    private static SlowRequestSampler sampler(long now) {
+        return new SlowRequestSampler(3, Duration.ofSeconds(10), Clock.fixed(Instant.ofEpochMilli(now), ZoneOffset.UTC));
+    }
+
+    private static SlowRequestSampler.Sample sample(long duration) {
+        return new SlowRequestSampler.Sample("GET", "/x", 200, duration, "caller", START);
+    }
+}
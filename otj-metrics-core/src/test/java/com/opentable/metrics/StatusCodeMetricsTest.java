@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.eclipse.jetty.http.HttpTester;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatusCodeMetricsTest {
+    private static final String RESPONSE = "0123456789";
+
+    private final MetricRegistry registry = new MetricRegistry();
+    private Server server;
+    private LocalConnector connector;
+
+    @Before
+    public void before() throws Exception {
+        server = new Server();
+        connector = new LocalConnector(server);
+        server.addConnector(connector);
+        server.setRequestLog(new StatusCodeMetrics(null, registry, "test"));
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                request.getInputStream().readAllBytes();
+                response.setStatus(HttpServletResponse.SC_CREATED);
+                response.getOutputStream().write(RESPONSE.getBytes(StandardCharsets.US_ASCII));
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void after() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void countsBytesBothWays() throws Exception {
+        assertThat(send("POST", "Content-Length: 11\r\n\r\nhello world")).isEqualTo(201);
+        awaitLogged(1);
+        assertThat(registry.meter("test.201-responses").getCount()).isEqualTo(1);
+        assertThat(registry.histogram("test.request-bytes").getSnapshot().getMax()).isEqualTo(11);
+        assertThat(registry.histogram("test.response-bytes").getSnapshot().getMax()).isEqualTo(RESPONSE.length());
+        assertThat(registry.counter("test.bytes-in").getCount()).isEqualTo(11);
+        assertThat(registry.counter("test.bytes-out").getCount()).isEqualTo(RESPONSE.length());
+        assertThat(registry.meter("test.post.bytes-in").getCount()).isEqualTo(11);
+        assertThat(registry.meter("test.post.bytes-out").getCount()).isEqualTo(RESPONSE.length());
+    }
+
+    @Test
+    public void countsChunkedUploadsPerMethod() throws Exception {
+        assertThat(send("PUT", "Transfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n"))
+                .isEqualTo(201);
+        assertThat(send("GET", "\r\n")).isEqualTo(201);
+        awaitLogged(2);
+        assertThat(registry.counter("test.bytes-in").getCount()).isEqualTo(11);
+        assertThat(registry.meter("test.put.bytes-in").getCount()).isEqualTo(11);
+        assertThat(registry.meter("test.get.bytes-in").getCount()).isZero();
+        assertThat(registry.meter("test.get.bytes-out").getCount()).isEqualTo(RESPONSE.length());
+        assertThat(registry.getMeters()).doesNotContainKey("test.post.bytes-in");
+    }
+
+    private int send(String method, String headersAndBody) throws Exception {
+        final String raw = connector.getResponse(method + " / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n"
+                + headersAndBody);
+        return HttpTester.parseResponse(raw).getStatus();
+    }
+
+    /**
+     * The request log runs once the exchange completes, which may be just after the client has the response.
+     */
+    private void awaitLogged(long requests) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (registry.meter("test.201-responses").getCount() < requests && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
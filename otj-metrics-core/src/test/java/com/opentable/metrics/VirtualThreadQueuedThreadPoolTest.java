@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.eclipse.jetty.util.thread.Invocable;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Virtual threads aren't needed to test the routing: the pool is given a stand-in executor with its own thread names.
+ */
+public class VirtualThreadQueuedThreadPoolTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final BlockingQueue<String> ranOn = new ArrayBlockingQueue<>(10);
+    private VirtualThreadQueuedThreadPool pool;
+
+    @After
+    public void after() throws Exception {
+        if (pool != null) {
+            pool.stop();
+        }
+    }
+
+    @Test
+    public void requestJobs() {
+        assertThat(VirtualThreadQueuedThreadPool.isRequestJob(() -> { })).isFalse();
+        assertThat(VirtualThreadQueuedThreadPool.isRequestJob(job(Invocable.InvocationType.BLOCKING))).isTrue();
+        assertThat(VirtualThreadQueuedThreadPool.isRequestJob(job(Invocable.InvocationType.NON_BLOCKING))).isFalse();
+    }
+
+    @Test
+    public void onlyRequestJobsGetVirtualThreads() throws Exception {
+        start(prefix -> Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat(prefix + "%d")
+                .setDaemon(true)
+                .build()));
+
+        pool.execute(job(Invocable.InvocationType.BLOCKING));
+        assertThat(ranOn.poll(5, TimeUnit.SECONDS)).startsWith("test-pool-virtual-");
+        pool.execute(job(Invocable.InvocationType.NON_BLOCKING));
+        assertThat(ranOn.poll(5, TimeUnit.SECONDS)).startsWith("test-pool-").doesNotContain("virtual");
+
+        // Both kinds recorded in the same job metrics; queue wait is recorded before the job runs
+        assertThat(metrics.timer(MetricRegistry.name(QueuedThreadPool.class, "test-pool", "queue-wait"))
+                .getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void platformThreadsIfNoVirtualThreads() throws Exception {
+        start(prefix -> {
+            throw new NoSuchMethodException("java.util.concurrent.Executors.newThreadPerTaskExecutor");
+        });
+        assertThat(pool.isRunning()).isTrue();
+
+        pool.execute(job(Invocable.InvocationType.BLOCKING));
+        assertThat(ranOn.poll(5, TimeUnit.SECONDS)).startsWith("test-pool-").doesNotContain("virtual");
+    }
+
+    private void start(VirtualThreadQueuedThreadPool.ExecutorFactory executorFactory) throws Exception {
+        pool = new VirtualThreadQueuedThreadPool(metrics, 0, executorFactory);
+        pool.setName("test-pool");
+        pool.setMinThreads(2);
+        pool.setMaxThreads(4);
+        pool.start();
+    }
+
+    private Runnable job(Invocable.InvocationType type) {
+        return new InvocableJob(type);
+    }
+
+    private class InvocableJob implements Runnable, Invocable {
+        private final InvocationType type;
+
+        InvocableJob(InvocationType type) {
+            this.type = type;
+        }
+
+        @Override
+        public void run() {
+            ranOn.add(Thread.currentThread().getName());
+        }
+
+        @Override
+        public InvocationType getInvocationType() {
+            return type;
+        }
+    }
+}
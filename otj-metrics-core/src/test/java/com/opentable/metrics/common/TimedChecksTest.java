@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.common;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import com.opentable.metrics.ready.Result;
+
+public class TimedChecksTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger hungRuns = new AtomicInteger();
+    private final Callable<Result> hung = () -> {
+        hungRuns.incrementAndGet();
+        release.await();
+        return Result.ready("finally");
+    };
+    private final Callable<Result> fine = Result::ready;
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void timedOutCheckIsUnreadyAndNotResubmitted() throws Exception {
+        final TimedChecks<Result> checks = timedChecks(name -> Duration.ofMillis(100), null);
+        final Map<String, Callable<Result>> toRun = ImmutableMap.of("hung", hung, "fine", fine);
+
+        SortedMap<String, Result> results = checks.run(executor, toRun);
+        assertThat(results.get("fine").isReady()).isTrue();
+        assertThat(results.get("hung").isReady()).isFalse();
+        assertThat(results.get("hung").getMessage()).isEqualTo("timed out after PT0.1S");
+
+        results = checks.run(executor, toRun);
+        assertThat(results.get("hung").isReady()).isFalse();
+        assertThat(hungRuns.get()).isEqualTo(1);
+        assertThat(metrics.meter("ready-check.hung.timeouts").getCount()).isEqualTo(2);
+        assertThat(metrics.meter("ready-check.fine.timeouts").getCount()).isZero();
+
+        // Once it has finished, runs start afresh
+        release.countDown();
+        results = checks.run(executor, toRun);
+        assertThat(results.get("hung").getMessage()).isEqualTo("finally");
+        final int runs = hungRuns.get();
+        checks.run(executor, toRun);
+        assertThat(hungRuns.get()).isEqualTo(runs + 1);
+    }
+
+    @Test
+    public void totalTimeoutCapsCheckTimeouts() {
+        final TimedChecks<Result> checks = timedChecks(name -> Duration.ofMinutes(1), Duration.ofMillis(100));
+        final long start = System.nanoTime();
+        final SortedMap<String, Result> results = checks.run(executor, ImmutableMap.of("hung", hung));
+        assertThat(results.get("hung").getMessage()).isEqualTo("timed out after PT0.1S");
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    public void failedCheckIsUnready() {
+        final TimedChecks<Result> checks = timedChecks(name -> null, null);
+        final SortedMap<String, Result> results = checks.run(executor, ImmutableMap.of("broken", () -> {
+            throw new IllegalStateException("broken");
+        }));
+        assertThat(results.get("broken").isReady()).isFalse();
+        assertThat(results.get("broken").getError()).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void timeoutsFromConfiguration() {
+        final MockEnvironment env = new MockEnvironment()
+                .withProperty("ot.metrics.ready.check-timeout", "PT2S")
+                .withProperty("ot.metrics.ready.timeout.database", "PT5S");
+        assertThat(TimedChecks.checkTimeouts(env, "ot.metrics.ready.").apply("database")).isEqualTo(Duration.ofSeconds(5));
+        assertThat(TimedChecks.checkTimeouts(env, "ot.metrics.ready.").apply("other")).isEqualTo(Duration.ofSeconds(2));
+        assertThat(TimedChecks.totalTimeout(env, "ot.metrics.ready.")).isEqualTo(TimedChecks.DEFAULT_TOTAL_TIMEOUT);
+    }
+
+    private TimedChecks<Result> timedChecks(final Function<String, Duration> checkTimeouts,
+                                            final Duration totalTimeout) {
+        return new TimedChecks<>(metrics, "ready-check", checkTimeouts, totalTimeout,
+                timeout -> Result.unready("timed out after %s", timeout), Result::unready);
+    }
+}
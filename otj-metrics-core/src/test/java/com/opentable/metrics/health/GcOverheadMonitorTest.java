@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.health;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.health.HealthCheck;
+
+import org.junit.Test;
+
+import com.opentable.metrics.health.GcOverheadEvent.Level;
+
+public class GcOverheadMonitorTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final List<Object> events = new ArrayList<>();
+    private final GcOverheadMonitor monitor = new GcOverheadMonitor(metrics, events::add, true, 10, 25);
+    private final GcOverheadHealthCheck check = new GcOverheadHealthCheck(monitor);
+    private double overhead;
+
+    @Test
+    public void okWithoutGauge() {
+        monitor.evaluate();
+        assertThat(monitor.getLevel()).isEqualTo(Level.OK);
+        assertThat(check.execute().isHealthy()).isTrue();
+        assertThat(events).isEmpty();
+    }
+
+    @Test
+    public void publishesLevelChanges() {
+        metrics.register("jvm.gc-mem.overhead", (Gauge<Double>) () -> overhead);
+        overhead = 2;
+        monitor.evaluate();
+        assertThat(events).isEmpty();
+
+        overhead = 12;
+        monitor.evaluate();
+        monitor.evaluate();
+        assertThat(monitor.getLevel()).isEqualTo(Level.WARN);
+        final HealthCheck.Result result = check.execute();
+        assertThat(result.isHealthy()).isFalse();
+        assertThat(result.getMessage()).isEqualTo("WARN: over 10.0% of time in GC");
+        assertThat(result.getDetails()).containsEntry(GcOverheadHealthCheck.PERCENT_DETAIL, 12.0);
+        overhead = 14;
+        monitor.evaluate();
+        assertThat(check.execute().getMessage()).isEqualTo(result.getMessage());
+
+        overhead = 40;
+        monitor.evaluate();
+        assertThat(check.execute().getMessage()).isEqualTo("WARN: over 25.0% of time in GC");
+
+        overhead = 1;
+        monitor.evaluate();
+        assertThat(check.execute().isHealthy()).isTrue();
+
+        assertThat(events).hasSize(3);
+        assertThat(events).extracting(e -> ((GcOverheadEvent) e).getLevel())
+                .containsExactly(Level.WARN, Level.CRITICAL, Level.OK);
+        assertThat(((GcOverheadEvent) events.get(1)).isOverloaded()).isTrue();
+        assertThat(((GcOverheadEvent) events.get(1)).getPercent()).isEqualTo(40);
+    }
+}
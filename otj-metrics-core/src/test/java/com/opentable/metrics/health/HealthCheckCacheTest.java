@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.health;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.health.HealthCheck;
+import com.codahale.metrics.health.HealthCheck.Result;
+import com.codahale.metrics.health.HealthCheckRegistry;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+public class HealthCheckCacheTest {
+    private final HealthCheckRegistry registry = new HealthCheckRegistry();
+    private final MockEnvironment env = new MockEnvironment()
+            .withProperty("ot.metrics.health.cache.interval.slow", "PT1M")
+            .withProperty("ot.metrics.health.timeout.hung", "PT0.1S");
+    private final CountingCheck fast = new CountingCheck();
+    private final CountingCheck slow = new CountingCheck();
+    private long nanos;
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return nanos;
+        }
+    };
+
+    @Test
+    public void runsEveryTimeWhenDisabled() {
+        registry.register("fast", fast);
+        final HealthCheckCache cache = cache(false);
+        cache.runHealthChecks();
+        cache.runHealthChecks();
+        cache.runHealthCheck("fast");
+        assertThat(fast.runs.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void servesLastResultUntilDue() {
+        registry.register("fast", fast);
+        registry.register("slow", slow);
+        final HealthCheckCache cache = cache(true);
+
+        // Nothing cached yet, so they're run right away
+        SortedMap<String, Result> results = cache.runHealthChecks();
+        assertThat(results).containsOnlyKeys("fast", "slow");
+        assertThat(results.get("fast").isHealthy()).isTrue();
+        assertThat(results.get("fast").getDetails()).containsEntry(HealthCheckCache.AGE_DETAIL, 0L);
+        assertThat(fast.runs.get()).isEqualTo(1);
+
+        advance(Duration.ofSeconds(5));
+        cache.refreshDue();
+        results = cache.runHealthChecks();
+        assertThat(results.get("fast").getDetails()).containsEntry(HealthCheckCache.AGE_DETAIL, 5000L);
+        assertThat(fast.runs.get()).isEqualTo(1);
+
+        advance(Duration.ofSeconds(5));
+        cache.refreshDue();
+        assertThat(fast.runs.get()).isEqualTo(2);
+        assertThat(slow.runs.get()).isEqualTo(1);
+        assertThat(cache.runHealthCheck("fast").getMessage()).isEqualTo("run 2");
+        assertThat(cache.runHealthCheck("slow").getMessage()).isEqualTo("run 1");
+
+        advance(Duration.ofSeconds(50));
+        cache.refreshDue();
+        assertThat(slow.runs.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void staleResultsAreUnhealthy() {
+        registry.register("fast", fast);
+        final HealthCheckCache cache = cache(true);
+        cache.runHealthChecks();
+
+        advance(Duration.ofSeconds(90));
+        final Result result = cache.runHealthCheck("fast");
+        assertThat(result.isHealthy()).isFalse();
+        assertThat(result.getMessage()).isEqualTo("no result for over max-staleness PT1M, last was: run 1");
+        assertThat(result.getDetails()).containsEntry(HealthCheckCache.AGE_DETAIL, 90_000L);
+    }
+
+    @Test
+    public void forgetsUnregisteredChecks() {
+        registry.register("fast", fast);
+        registry.register("slow", slow);
+        final HealthCheckCache cache = cache(true);
+        cache.refreshDue();
+        registry.unregister("slow");
+        cache.refreshDue();
+        assertThat(cache.runHealthChecks()).containsOnlyKeys("fast");
+    }
+
+    @Test(timeout = 10_000)
+    public void newHungCheckDoesNotHoldUpTheCaller() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger hungRuns = new AtomicInteger();
+        registry.register("fast", fast);
+        registry.register("hung", new HealthCheck() {
+            @Override
+            protected Result check() throws InterruptedException {
+                hungRuns.incrementAndGet();
+                release.await();
+                return Result.healthy("finally");
+            }
+        });
+        final ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            final HealthCheckCache cache = cache(true, pool);
+
+            SortedMap<String, Result> results = cache.runHealthChecks();
+            assertThat(results.get("fast").isHealthy()).isTrue();
+            assertThat(results.get("hung").isHealthy()).isFalse();
+            assertThat(results.get("hung").getMessage()).isEqualTo("no result yet, timed out after PT0.1S");
+
+            // Neither the next caller nor the scheduler start it again while it hangs
+            cache.refreshDue();
+            assertThat(cache.runHealthCheck("hung").isHealthy()).isFalse();
+            assertThat(hungRuns).hasValue(1);
+
+            release.countDown();
+            pool.shutdown();
+            assertThat(pool.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+            results = cache.runHealthChecks();
+            assertThat(results.get("hung").getMessage()).isEqualTo("finally");
+            assertThat(hungRuns).hasValue(1);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private HealthCheckCache cache(final boolean enabled) {
+        return cache(enabled, MoreExecutors.newDirectExecutorService());
+    }
+
+    private HealthCheckCache cache(final boolean enabled, final ExecutorService executor) {
+        return new HealthCheckCache(registry, executor, env, clock, enabled, Duration.ofSeconds(10),
+                Duration.ofMinutes(1));
+    }
+
+    private void advance(final Duration duration) {
+        nanos += duration.toNanos();
+    }
+
+    private static class CountingCheck extends HealthCheck {
+        private final AtomicInteger runs = new AtomicInteger();
+
+        @Override
+        protected Result check() {
+            return Result.healthy("run " + runs.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+@SuppressWarnings("restriction")
+public class AllocationRateMetricsTest {
+    private final MetricRegistry registry = new MetricRegistry();
+    /** thread id &rarr; allocated bytes */
+    private final Map<Long, Long> allocated = new LinkedHashMap<>();
+    private final Map<Long, String> names = new LinkedHashMap<>();
+    /** the ids of each name lookup */
+    private final List<long[]> lookups = new ArrayList<>();
+    private final AllocationRateMetrics metrics = new AllocationRateMetrics("test", registry, fakeBean()) {
+        @Override
+        Map<Long, String> threadNames(long[] ids) {
+            lookups.add(ids);
+            final Map<Long, String> result = new HashMap<>();
+            for (final long id : ids) {
+                result.put(id, names.get(id));
+            }
+            return result;
+        }
+    };
+
+    @Test
+    public void reportsRateAndTopGroups() {
+        metrics.registerMetrics();
+        thread(1, "default-pool-1", 1000);
+        thread(2, "default-pool-2", 1000);
+        thread(3, "nmt-fetcher-0", 1000);
+        metrics.sample(0);
+        assertThat(lookups).hasSize(1);
+        assertThat(lookups.get(0)).containsExactly(1, 2, 3);
+
+        thread(1, "default-pool-1", 6000);
+        thread(2, "default-pool-2", 4000);
+        thread(3, "nmt-fetcher-0", 2000);
+        thread(4, "worker", 1200);
+        metrics.sample(TimeUnit.SECONDS.toNanos(2));
+        // Only the new thread is looked up, in one batch
+        assertThat(lookups).hasSize(2);
+        assertThat(lookups.get(1)).containsExactly(4);
+
+        assertThat(registry.meter("test.bytes").getCount()).isEqualTo(10_200);
+        assertThat(gauge("test.bytes-per-second")).isEqualTo(5100.0);
+        @SuppressWarnings("unchecked")
+        final Map<String, Long> top = (Map<String, Long>) gauge("test.top-threads");
+        assertThat(top).containsExactly(entry("default-pool", 4000L), entry("worker", 600L), entry("nmt-fetcher", 500L));
+    }
+
+    @Test
+    public void groupsThreadNames() {
+        assertThat(ThreadNames.group("default-pool-42")).isEqualTo("default-pool");
+        assertThat(ThreadNames.group("ForkJoinPool-1-worker-3")).isEqualTo("forkjoinpool-1-worker");
+        assertThat(ThreadNames.group("Signal Dispatcher")).isEqualTo("signal-dispatcher");
+        assertThat(ThreadNames.group("123")).isEqualTo("123");
+        assertThat(ThreadNames.group(null)).isEqualTo(ThreadNames.UNNAMED);
+    }
+
+    private Object gauge(String name) {
+        return ((Gauge<?>) registry.getGauges().get(name)).getValue();
+    }
+
+    private void thread(long id, String name, long bytes) {
+        allocated.put(id, bytes);
+        names.put(id, name);
+    }
+
+    private ThreadMXBean fakeBean() {
+        return (ThreadMXBean) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {com.sun.management.ThreadMXBean.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAllThreadIds":
+                            return allocated.keySet().stream().mapToLong(Long::longValue).toArray();
+                        case "getThreadAllocatedBytes":
+                            final long[] ids = (long[]) args[0];
+                            final long[] result = new long[ids.length];
+                            for (int i = 0; i < ids.length; i++) {
+                                result[i] = allocated.getOrDefault(ids[i], -1L);
+                            }
+                            return result;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CgroupMetricSetTest {
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private long nanos;
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return nanos;
+        }
+    };
+
+    @Test
+    public void readsV2() throws URISyntaxException {
+        final Map<String, Metric> metrics = cgroups(fixture("v2")).getMetrics();
+        assertThat(value(metrics, "cpu.nr-periods")).isEqualTo(1200L);
+        assertThat(value(metrics, "cpu.nr-throttled")).isEqualTo(37L);
+        assertThat(value(metrics, "cpu.throttled-usec")).isEqualTo(4_512_345L);
+        assertThat(value(metrics, "memory.current")).isEqualTo(536_870_912L);
+        assertThat(value(metrics, "memory.max")).isEqualTo(-1L);
+        assertThat(value(metrics, "memory.pressure.some-avg10")).isEqualTo(1.5);
+        assertThat(value(metrics, "memory.pressure.some-avg60")).isEqualTo(0.75);
+        assertThat(value(metrics, "memory.pressure.full-avg10")).isEqualTo(0.25);
+        assertThat(value(metrics, "memory.pressure.full-avg60")).isEqualTo(0.1);
+    }
+
+    @Test
+    public void readsV1() throws URISyntaxException {
+        final Map<String, Metric> metrics = cgroups(fixture("v1")).getMetrics();
+        assertThat(metrics).doesNotContainKey("memory.pressure.some-avg10");
+        assertThat(value(metrics, "cpu.nr-periods")).isEqualTo(500L);
+        assertThat(value(metrics, "cpu.nr-throttled")).isEqualTo(12L);
+        assertThat(value(metrics, "cpu.throttled-usec")).isEqualTo(3_000_000L);
+        assertThat(value(metrics, "memory.current")).isEqualTo(268_435_456L);
+        assertThat(value(metrics, "memory.max")).isEqualTo(-1L);
+    }
+
+    @Test
+    public void emptyWithoutCgroups() throws URISyntaxException {
+        assertThat(cgroups(fixture("none")).getMetrics()).isEmpty();
+        assertThat(cgroups(fixture("none").resolve("missing")).getMetrics()).isEmpty();
+    }
+
+    @Test
+    public void nullWhenFileMissing() throws IOException {
+        final Path root = tmp.getRoot().toPath();
+        write(root.resolve("cgroup.controllers"), "memory\n");
+        write(root.resolve("memory.current"), "garbage\n");
+        final Map<String, Metric> metrics = cgroups(root).getMetrics();
+        assertThat(value(metrics, "cpu.nr-throttled")).isNull();
+        assertThat(value(metrics, "memory.current")).isNull();
+        assertThat(value(metrics, "memory.pressure.some-avg10")).isNull();
+    }
+
+    @Test
+    public void readsOncePerCycle() throws IOException {
+        final Path root = tmp.getRoot().toPath();
+        write(root.resolve("cgroup.controllers"), "cpu memory\n");
+        write(root.resolve("cpu.stat"), "nr_periods 10\nnr_throttled 1\n");
+        final Map<String, Metric> metrics = cgroups(root);
+        assertThat(value(metrics, "cpu.nr-periods")).isEqualTo(10L);
+
+        write(root.resolve("cpu.stat"), "nr_periods 20\nnr_throttled 2\n");
+        assertThat(value(metrics, "cpu.nr-periods")).isEqualTo(10L);
+        assertThat(value(metrics, "cpu.nr-throttled")).isEqualTo(1L);
+        nanos += TimeUnit.SECONDS.toNanos(2);
+        assertThat(value(metrics, "cpu.nr-periods")).isEqualTo(20L);
+    }
+
+    @Test
+    public void resolvesOwnCgroup() throws IOException {
+        final Path root = tmp.getRoot().toPath();
+        final Path own = Files.createDirectories(root.resolve("system.slice/app.service"));
+        write(root.resolve("cgroup.controllers"), "cpu memory\n");
+        write(root.resolve("memory.current"), "1\n");
+        write(own.resolve("memory.current"), "2\n");
+        final Path procCgroup = tmp.newFile("cgroup").toPath();
+
+        write(procCgroup, "0::/system.slice/app.service\n");
+        assertThat(value(new CgroupMetricSet(root, procCgroup, clock).getMetrics(), "memory.current")).isEqualTo(2L);
+        // Namespaced, or a cgroup we can't see
+        write(procCgroup, "0::/\n");
+        assertThat(value(new CgroupMetricSet(root, procCgroup, clock).getMetrics(), "memory.current")).isEqualTo(1L);
+        write(procCgroup, "0::/elsewhere\n");
+        assertThat(value(new CgroupMetricSet(root, procCgroup, clock).getMetrics(), "memory.current")).isEqualTo(1L);
+    }
+
+    @Test
+    public void parsesV1ProcCgroup() throws IOException {
+        final Path procCgroup = tmp.newFile("cgroup").toPath();
+        write(procCgroup, "12:memory:/docker/abc\n4:cpu,cpuacct:/docker/abc\n1:name=systemd:/\n");
+        assertThat(CgroupMetricSet.ownPaths(procCgroup))
+                .containsEntry("memory", "/docker/abc")
+                .containsEntry("cpu", "/docker/abc")
+                .containsEntry("cpuacct", "/docker/abc")
+                .doesNotContainKey("");
+    }
+
+    private Map<String, Metric> cgroups(Path root) {
+        return new CgroupMetricSet(root, root.resolve("no-such-proc-cgroup"), clock).getMetrics();
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static Object value(Map<String, Metric> metrics, String name) {
+        return ((Gauge<?>) metrics.get(name)).getValue();
+    }
+
+    private Path fixture(String name) throws URISyntaxException {
+        return Paths.get(getClass().getResource("/cgroup/" + name).toURI());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ContentionMetricsTest {
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final ContentionMetrics contention = new ContentionMetrics("test", new MetricRegistry(), threads);
+    private final Object lock = new Object();
+
+    @Before
+    public void before() {
+        Assume.assumeTrue(threads.isThreadContentionMonitoringSupported());
+        threads.setThreadContentionMonitoringEnabled(true);
+    }
+
+    @After
+    public void after() {
+        threads.setThreadContentionMonitoringEnabled(false);
+    }
+
+    @Test(timeout = 30_000)
+    public void aggregatesBlockedTimeByGroup() throws InterruptedException {
+        contention.sample(0);
+        final Thread blocked = new Thread(() -> {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }, "contended-worker-1");
+        synchronized (lock) {
+            blocked.start();
+            while (blocked.getState() != Thread.State.BLOCKED) {
+                Thread.sleep(5);
+            }
+            Thread.sleep(200);
+            // Blocked time includes the current stretch
+            contention.sample(TimeUnit.SECONDS.toNanos(1));
+        }
+        blocked.join();
+
+        assertThat(contention.getTotals().getBlockedCount()).isGreaterThanOrEqualTo(1);
+        assertThat(contention.getTotals().getBlockedMillis()).isGreaterThanOrEqualTo(100);
+        assertThat(contention.getTopBlocked()).containsKey("contended-worker");
+        assertThat(contention.getTopBlocked().get("contended-worker")).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    public void noDeadlocks() throws Exception {
+        assertThat(contention.deadlockCheck().execute().isHealthy()).isTrue();
+        assertThat(contention.contentionCheck().execute().isHealthy()).isTrue();
+    }
+}
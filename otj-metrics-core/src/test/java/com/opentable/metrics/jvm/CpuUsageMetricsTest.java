@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+public class CpuUsageMetricsTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final CpuUsageMetrics cpu = new CpuUsageMetrics("test", new MetricRegistry(), new ProcMetricSet(),
+            "test.requests");
+
+    @Test
+    public void computesFromDeltas() {
+        cpu.sample(new CpuUsageMetrics.Sample(0, 5 * SECOND, 4000, 1000, 100));
+        assertThat(cpu.getCoresUsed()).isNaN();
+
+        // 15 CPU seconds over 10 seconds, 12 of them in user mode, for 300 requests
+        cpu.sample(new CpuUsageMetrics.Sample(10 * SECOND, 20 * SECOND, 16_000, 4000, 400));
+        assertThat(cpu.getCoresUsed()).isCloseTo(1.5, within(1e-9));
+        assertThat(cpu.getUserCores()).isCloseTo(1.2, within(1e-9));
+        assertThat(cpu.getSystemCores()).isCloseTo(0.3, within(1e-9));
+        assertThat(cpu.getSecondsPerRequest()).isCloseTo(0.05, within(1e-9));
+    }
+
+    @Test
+    public void nanWithoutProcOrRequests() {
+        cpu.sample(new CpuUsageMetrics.Sample(0, 0, -1, -1, -1));
+        cpu.sample(new CpuUsageMetrics.Sample(10 * SECOND, 5 * SECOND, -1, -1, -1));
+        assertThat(cpu.getCoresUsed()).isCloseTo(0.5, within(1e-9));
+        assertThat(cpu.getUserCores()).isNaN();
+        assertThat(cpu.getSecondsPerRequest()).isNaN();
+
+        cpu.sample(new CpuUsageMetrics.Sample(20 * SECOND, 6 * SECOND, -1, -1, 10));
+        // The timer only just appeared, so we can't tell how many requests were in this period
+        assertThat(cpu.getSecondsPerRequest()).isNaN();
+        cpu.sample(new CpuUsageMetrics.Sample(30 * SECOND, 7 * SECOND, -1, -1, 10));
+        assertThat(cpu.getSecondsPerRequest()).isNaN();
+    }
+}
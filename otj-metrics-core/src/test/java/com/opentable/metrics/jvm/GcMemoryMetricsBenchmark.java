@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.ThreadMXBean;
+
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Replays a real GC notification through {@link GcMemoryMetrics#handle} and reports the bytes allocated per
+ * notification, as measured by {@link ThreadMXBean#getCurrentThreadAllocatedBytes()}. The notification itself is
+ * decoded once up front, as the JMX plumbing does before we ever see it.
+ */
+@SuppressWarnings("restriction")
+public class GcMemoryMetricsBenchmark {
+    private static final int WARMUP = 100_000;
+    private static final int ITERATIONS = 1_000_000;
+
+    public static void main(final String[] args) throws InterruptedException {
+        final GarbageCollectionNotificationInfo info = captureNotification();
+        final GcMemoryMetrics metrics = new GcMemoryMetrics("bench", new MetricRegistry());
+        final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        for (int i = 0; i < WARMUP; i++) {
+            metrics.handle(info);
+        }
+
+        final long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            metrics.handle(info);
+        }
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        System.out.printf("%s with %d pools: %.1f bytes and %.0f ns per notification%n",
+                info.getGcName(), info.getGcInfo().getMemoryUsageBeforeGc().size(),
+                (double) allocated / ITERATIONS, (double) elapsed / ITERATIONS);
+    }
+
+    /**
+     * @return the next real GC notification, after asking for a GC
+     */
+    static GarbageCollectionNotificationInfo captureNotification() throws InterruptedException {
+        final BlockingQueue<GarbageCollectionNotificationInfo> captured = new ArrayBlockingQueue<>(16);
+        final NotificationListener listener = (notif, handback) -> {
+            if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notif.getType())) {
+                captured.offer(GarbageCollectionNotificationInfo.from((CompositeData) notif.getUserData()));
+            }
+        };
+        ManagementFactory.getGarbageCollectorMXBeans()
+                .forEach(gc -> ((NotificationEmitter) gc).addNotificationListener(listener, null, null));
+        System.gc();
+        final GarbageCollectionNotificationInfo info = captured.poll(10, TimeUnit.SECONDS);
+        if (info == null) {
+            throw new IllegalStateException("no GC notification received");
+        }
+        return info;
+    }
+}
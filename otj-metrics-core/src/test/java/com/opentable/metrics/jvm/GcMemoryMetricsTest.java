@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.MemoryUsage;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+/**
+ * Feeds a real GC notification to {@link GcMemoryMetrics#handle} directly; the instances under test don't listen to
+ * the collectors, so no other GC gets in.
+ */
+@SuppressWarnings("restriction")
+public class GcMemoryMetricsTest {
+    private final MetricRegistry registry = new MetricRegistry();
+
+    @Test
+    public void secondInstanceSharesOverheadGauge() {
+        metrics();
+        metrics();
+        assertThat(registry.getGauges()).containsKey("test.overhead");
+        assertThat((Double) registry.getGauges().get("test.overhead").getValue()).isBetween(0.0, 100.0);
+    }
+
+    @Test
+    public void updatesCachedHandles() throws InterruptedException {
+        final GarbageCollectionNotificationInfo info = GcMemoryMetricsBenchmark.captureNotification();
+        final GcMemoryMetrics metrics = metrics();
+        final String collector = "test." + normalize(info.getGcName());
+
+        metrics.handle(info);
+        final Map<String, Metric> registered = new HashMap<>(registry.getMetrics());
+        metrics.handle(info);
+
+        // The very same metric instances, only updated
+        assertThat(registry.getMetrics()).containsExactlyInAnyOrderEntriesOf(registered);
+        assertThat(registry.timer(collector + ".timer").getCount()).isEqualTo(2);
+        assertThat(registry.meter(collector + ".rate").getCount()).isEqualTo(2);
+
+        long used = 0;
+        for (final Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageAfterGc().entrySet()) {
+            used += pool.getValue().getUsed();
+            assertThat(gauge(collector + ".after.pools." + normalize(pool.getKey()) + ".used"))
+                    .isEqualTo(pool.getValue().getUsed());
+        }
+        assertThat(gauge(collector + ".after.total.used")).isEqualTo(used);
+    }
+
+    private GcMemoryMetrics metrics() {
+        return new GcMemoryMetrics("test", registry, Duration.ofMinutes(1), Collections.emptyList());
+    }
+
+    private Object gauge(String name) {
+        final Gauge<?> gauge = registry.getGauges().get(name);
+        assertThat(gauge).as(name).isNotNull();
+        return gauge.getValue();
+    }
+
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT).replace(' ', '-');
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class GcOverheadWindowTest {
+    private final GcOverheadWindow window = new GcOverheadWindow(Duration.ofSeconds(10));
+
+    @Test
+    public void emptyWindow() {
+        assertThat(window.percent(0)).isZero();
+        assertThat(window.percent(60_000)).isZero();
+    }
+
+    @Test
+    public void sumsPausesInWindow() {
+        window.record(51_000, 500);
+        window.record(55_000, 1500);
+        assertThat(window.percent(60_000)).isCloseTo(20, within(1e-9));
+    }
+
+    @Test
+    public void clipsPauseAtWindowStart() {
+        window.record(51_000, 2000);
+        assertThat(window.percent(60_000)).isCloseTo(10, within(1e-9));
+        assertThat(window.percent(61_000)).isZero();
+    }
+
+    @Test
+    public void usesUptimeWhileShorterThanWindow() {
+        window.record(2000, 1000);
+        assertThat(window.percent(4000)).isCloseTo(25, within(1e-9));
+    }
+
+    @Test
+    public void concurrentCyclesAreNotPauses() {
+        assertThat(GcOverheadWindow.isPause("G1 Young Generation")).isTrue();
+        assertThat(GcOverheadWindow.isPause("ZGC Pauses")).isTrue();
+        assertThat(GcOverheadWindow.isPause("ZGC Cycles")).isFalse();
+        assertThat(GcOverheadWindow.isPause("G1 Concurrent GC")).isFalse();
+    }
+}
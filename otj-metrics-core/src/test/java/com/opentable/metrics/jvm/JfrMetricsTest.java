@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+public class JfrMetricsTest {
+    @Test(timeout = 30_000)
+    public void timesGcPauses() throws InterruptedException {
+        final MetricRegistry registry = new MetricRegistry();
+        final Duration never = Duration.ofHours(1);
+        try (JfrMetrics jfr = new JfrMetrics("test", registry,
+                new JfrMetrics.Thresholds(Duration.ZERO, never, never, null, never))) {
+            jfr.start();
+            while (registry.timer("test.gc-pause").getCount() == 0) {
+                System.gc();
+                Thread.sleep(200);
+            }
+        }
+        assertThat(registry.getTimers()).containsKeys("test.safepoint-begin", "test.monitor-enter")
+                .doesNotContainKey("test.thread-park");
+        assertThat(registry.timer("test.monitor-enter").getCount()).isZero();
+    }
+}
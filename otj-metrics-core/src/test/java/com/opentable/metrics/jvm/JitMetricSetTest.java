@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+
+import org.junit.Test;
+
+public class JitMetricSetTest {
+    private long nanos;
+    private long compileMillis;
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return nanos;
+        }
+    };
+
+    @Test
+    public void compileTimeRate() {
+        final Map<String, Metric> metrics = new JitMetricSet(fakeCompiler(), Collections.emptyList(), clock)
+                .getMetrics();
+        compileMillis = 1000;
+        assertThat((Double) value(metrics, "compile-time-rate")).isNaN();
+
+        // Cached in between
+        nanos += TimeUnit.SECONDS.toNanos(5);
+        compileMillis = 1200;
+        assertThat((Double) value(metrics, "compile-time-rate")).isNaN();
+
+        nanos += TimeUnit.SECONDS.toNanos(15);
+        compileMillis = 3000;
+        assertThat((Double) value(metrics, "compile-time-rate")).isCloseTo(100.0, within(1e-9));
+        assertThat(value(metrics, "compile-time")).isEqualTo(3000L);
+        assertThat(metrics).doesNotContainKey("code-cache.used");
+    }
+
+    @Test
+    public void codeCacheFromThisJvm() {
+        final Map<String, Metric> metrics = new JitMetricSet().getMetrics();
+        assertThat((Long) value(metrics, "code-cache.used")).isPositive();
+        assertThat((Double) value(metrics, "code-cache.fullness")).isBetween(0.0, 1.0);
+    }
+
+    @Test
+    public void segmentNames() {
+        assertThat(JitMetricSet.segmentName("CodeHeap 'profiled nmethods'")).isEqualTo("profiled-nmethods");
+        assertThat(JitMetricSet.segmentName("CodeHeap 'non-nmethods'")).isEqualTo("non-nmethods");
+        assertThat(JitMetricSet.segmentName("Code Cache")).isEqualTo("all");
+    }
+
+    private static Object value(Map<String, Metric> metrics, String name) {
+        return ((Gauge<?>) metrics.get(name)).getValue();
+    }
+
+    private CompilationMXBean fakeCompiler() {
+        final CompilationMXBean real = ManagementFactory.getCompilationMXBean();
+        return new CompilationMXBean() {
+            @Override
+            public String getName() {
+                return "fake";
+            }
+
+            @Override
+            public boolean isCompilationTimeMonitoringSupported() {
+                return true;
+            }
+
+            @Override
+            public long getTotalCompilationTime() {
+                return compileMillis;
+            }
+
+            @Override
+            public ObjectName getObjectName() {
+                return real.getObjectName();
+            }
+        };
+    }
+}
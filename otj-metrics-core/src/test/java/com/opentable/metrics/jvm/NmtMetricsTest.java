@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+public class NmtMetricsTest {
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void backsOffWhileStable() {
+        Duration period = NmtMetrics.MIN_PERIOD;
+        period = NmtMetrics.nextPeriod(period, -1, 500 * MB);
+        assertThat(period).isEqualTo(Duration.ofSeconds(20));
+        period = NmtMetrics.nextPeriod(period, 500 * MB, 500 * MB);
+        assertThat(period).isEqualTo(Duration.ofSeconds(40));
+        // Small growth or shrinking counts as stable
+        period = NmtMetrics.nextPeriod(period, 500 * MB, 502 * MB);
+        period = NmtMetrics.nextPeriod(period, 502 * MB, 400 * MB);
+        assertThat(period).isEqualTo(Duration.ofSeconds(160));
+        for (int i = 0; i < 10; i++) {
+            period = NmtMetrics.nextPeriod(period, 400 * MB, 400 * MB);
+        }
+        assertThat(period).isEqualTo(NmtMetrics.MAX_PERIOD);
+    }
+
+    @Test
+    public void speedsUpWhileGrowing() {
+        assertThat(NmtMetrics.nextPeriod(NmtMetrics.MAX_PERIOD, 500 * MB, 510 * MB)).isEqualTo(NmtMetrics.MIN_PERIOD);
+    }
+
+    @Test
+    public void stableWithoutNmt() {
+        assertThat(NmtMetrics.nextPeriod(NmtMetrics.MIN_PERIOD, 0, 0)).isEqualTo(Duration.ofSeconds(20));
+    }
+}
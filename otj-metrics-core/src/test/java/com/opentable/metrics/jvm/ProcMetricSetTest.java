@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcMetricSetTest {
+    @Rule
+    public final TemporaryFolder tmp = new TemporaryFolder();
+
+    private long nanos;
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return nanos;
+        }
+    };
+
+    @Test
+    public void parsesFixture() throws URISyntaxException {
+        final Path dir = Paths.get(getClass().getResource("/proc").toURI());
+        final Map<String, Metric> metrics = new ProcMetricSet(dir, clock).getMetrics();
+        assertThat(value(metrics, "memory.rss")).isEqualTo(1_073_741_824L);
+        assertThat(value(metrics, "memory.rss-peak")).isEqualTo(1_342_177_280L);
+        assertThat(value(metrics, "memory.rss-anon")).isEqualTo(1_006_632_960L);
+        assertThat(value(metrics, "memory.rss-file")).isEqualTo(67_108_864L);
+        assertThat(value(metrics, "memory.swap")).isEqualTo(0L);
+        assertThat(value(metrics, "context-switches.voluntary")).isEqualTo(1234L);
+        assertThat(value(metrics, "context-switches.involuntary")).isEqualTo(56L);
+        // The command name has spaces and parentheses in it
+        assertThat(value(metrics, "page-faults.minor")).isEqualTo(987_654L);
+        assertThat(value(metrics, "page-faults.major")).isEqualTo(321L);
+        assertThat(value(metrics, "io.read-chars")).isEqualTo(1_000_000L);
+        assertThat(value(metrics, "io.write-chars")).isEqualTo(2_000_000L);
+        assertThat(value(metrics, "io.read-syscalls")).isEqualTo(3000L);
+        assertThat(value(metrics, "io.write-syscalls")).isEqualTo(4000L);
+        assertThat(value(metrics, "io.read-bytes")).isEqualTo(8192L);
+        assertThat(value(metrics, "io.write-bytes")).isEqualTo(16_384L);
+        assertThat(value(metrics, "cpu.user-time")).isEqualTo(55_000L);
+        assertThat(value(metrics, "cpu.system-time")).isEqualTo(12_000L);
+    }
+
+    @Test
+    public void readsOncePerCycle() throws IOException {
+        final Path dir = tmp.getRoot().toPath();
+        write(dir.resolve("status"), "VmRSS:\t 100 kB\n");
+        final Map<String, Metric> metrics = new ProcMetricSet(dir, clock).getMetrics();
+        assertThat(value(metrics, "memory.rss")).isEqualTo(102_400L);
+
+        write(dir.resolve("status"), "VmRSS:\t 200 kB\n");
+        assertThat(value(metrics, "memory.rss")).isEqualTo(102_400L);
+        nanos += TimeUnit.SECONDS.toNanos(2);
+        assertThat(value(metrics, "memory.rss")).isEqualTo(204_800L);
+        // No stat or io here
+        assertThat(value(metrics, "page-faults.major")).isNull();
+        assertThat(value(metrics, "io.read-bytes")).isNull();
+    }
+
+    @Test
+    public void growsBuffer() throws IOException {
+        final Path dir = tmp.getRoot().toPath();
+        final StringBuilder status = new StringBuilder();
+        while (status.length() < 10_000) {
+            status.append("Mems_allowed:\t00000000,00000000,00000000,00000000\n");
+        }
+        status.append("voluntary_ctxt_switches:\t7\n");
+        write(dir.resolve("status"), status.toString());
+        assertThat(value(new ProcMetricSet(dir, clock).getMetrics(), "context-switches.voluntary")).isEqualTo(7L);
+    }
+
+    @Test
+    public void emptyWithoutProc() {
+        assertThat(new ProcMetricSet(tmp.getRoot().toPath().resolve("missing"), clock).getMetrics()).isEmpty();
+    }
+
+    private static Object value(Map<String, Metric> metrics, String name) {
+        return ((Gauge<?>) metrics.get(name)).getValue();
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        final Path temp = Files.createTempFile(file.getParent(), "proc", null);
+        Files.write(temp, content.getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
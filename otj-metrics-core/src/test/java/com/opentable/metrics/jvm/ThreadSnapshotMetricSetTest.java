@@ -0,0 +1,174 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.jvm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ThreadSnapshotMetricSetTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Thread> started = new ArrayList<>();
+    private final AtomicInteger dumps = new AtomicInteger();
+    private final AtomicInteger beanCalls = new AtomicInteger();
+    private long nanos;
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return nanos;
+        }
+    };
+    private final Map<String, Metric> metrics = new ThreadSnapshotMetricSet(countingBean(), clock).getMetrics();
+
+    @After
+    public void after() throws InterruptedException {
+        release.countDown();
+        for (final Thread thread : started) {
+            thread.interrupt();
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    @Test
+    public void oneSnapshotPerCycle() throws InterruptedException {
+        startWaiting("snapshot-test-1");
+        startWaiting("snapshot-test-2");
+
+        for (final Metric metric : metrics.values()) {
+            ((Gauge<?>) metric).getValue();
+        }
+        assertThat(dumps).hasValue(1);
+        assertThat((Integer) value("waiting.count")).isGreaterThanOrEqualTo(2);
+        assertThat((Integer) value("daemon.count")).isGreaterThanOrEqualTo(2);
+        assertThat((Integer) value("count")).isGreaterThan((Integer) value("daemon.count"));
+        assertThat(value("deadlock.count")).isEqualTo(0);
+        @SuppressWarnings("unchecked")
+        final Map<String, Integer> pools = (Map<String, Integer>) value("pools");
+        assertThat(pools).containsEntry("snapshot-test", 2);
+
+        nanos += TimeUnit.SECONDS.toNanos(2);
+        value("count");
+        assertThat(dumps).hasValue(2);
+    }
+
+    @Test
+    public void poolsAndDeadlocksFromOneSnapshot() throws InterruptedException {
+        final ReentrantLock a = new ReentrantLock();
+        final ReentrantLock b = new ReentrantLock();
+        final CountDownLatch bothHeld = new CountDownLatch(2);
+        final Thread first = startLocking("deadlock-test-1", a, b, bothHeld);
+        final Thread second = startLocking("deadlock-test-2", b, a, bothHeld);
+        while (first.getState() != Thread.State.WAITING || second.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+        beanCalls.set(0);
+
+        assertThat(value("deadlock.count")).isEqualTo(2);
+        @SuppressWarnings("unchecked")
+        final Set<String> deadlocks = (Set<String>) value("deadlocks");
+        assertThat(deadlocks).hasSize(2).anySatisfy(d -> assertThat(d).startsWith("deadlock-test-1 locked on")
+                .endsWith("(owned by deadlock-test-2)"));
+        @SuppressWarnings("unchecked")
+        final Map<String, Integer> pools = (Map<String, Integer>) value("pools");
+        assertThat(pools).containsEntry("deadlock-test", 2);
+        assertThat(value("count")).isEqualTo(pools.values().stream().mapToInt(Integer::intValue).sum());
+
+        // One dump for all of it: no findDeadlockedThreads, no second getThreadInfo
+        assertThat(dumps).hasValue(1);
+        assertThat(beanCalls).hasValue(4);
+    }
+
+    @Test
+    public void sameNamesAsDropwizard() {
+        assertThat(metrics).containsKeys("new.count", "runnable.count", "blocked.count", "waiting.count",
+                "timed_waiting.count", "terminated.count", "count", "daemon.count", "peak.count",
+                "total_started.count", "deadlock.count", "deadlocks");
+    }
+
+    private Object value(String name) {
+        return ((Gauge<?>) metrics.get(name)).getValue();
+    }
+
+    private void startWaiting(String name) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        started.await();
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+    }
+
+    private Thread startLocking(String name, ReentrantLock held, ReentrantLock wanted, CountDownLatch bothHeld) {
+        final Thread thread = new Thread(() -> {
+            held.lock();
+            try {
+                bothHeld.countDown();
+                bothHeld.await();
+                wanted.lockInterruptibly();
+                wanted.unlock();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                held.unlock();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        started.add(thread);
+        return thread;
+    }
+
+    private ThreadMXBean countingBean() {
+        final ThreadMXBean real = ManagementFactory.getThreadMXBean();
+        return (ThreadMXBean) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ThreadMXBean.class}, (proxy, method, args) -> {
+                    beanCalls.incrementAndGet();
+                    if (method.getName().equals("getAllThreadIds")) {
+                        dumps.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(real, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.ready;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.Map;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import com.opentable.metrics.http.CheckState;
+
+public class ReadyControllerTest {
+    private final ReadyCheckRegistry registry = new ReadyCheckRegistry();
+    private final ReadyController controller = new ReadyController(registry,
+            MoreExecutors.newDirectExecutorService(), new MockEnvironment(), event -> { });
+
+    @After
+    public void after() {
+        controller.close();
+    }
+
+    @Test
+    public void warnOnlyWarmUpIsWarning() {
+        registry.register("warmUp", warmUp(true));
+        final Pair<Map<String, Result>, CheckState> response = controller.runChecks();
+        assertThat(response.getRight()).isEqualTo(CheckState.WARNING);
+        assertThat(response.getRight().getHttpStatus()).isEqualTo(400);
+        assertThat(response.getLeft().get("warmUp").getMessage())
+                .isEqualTo("WARN: warming up, waiting for [min-time PT30S]");
+    }
+
+    @Test
+    public void warmUpIsCritical() {
+        registry.register("warmUp", warmUp(false));
+        final Pair<Map<String, Result>, CheckState> response = controller.runChecks();
+        assertThat(response.getRight()).isEqualTo(CheckState.CRITICAL);
+        assertThat(response.getRight().getHttpStatus()).isEqualTo(500);
+    }
+
+    private static WarmUpReadyCheck warmUp(boolean warnOnly) {
+        final Clock clock = new Clock() {
+            @Override
+            public long getTick() {
+                return 0;
+            }
+        };
+        final WarmUpReadyCheck check = new WarmUpReadyCheck(new MetricRegistry(), clock, true, warnOnly,
+                Duration.ofSeconds(30), Duration.ofMinutes(5), 50, 0);
+        check.started();
+        return check;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.opentable.metrics.ready;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import org.junit.Test;
+
+public class WarmUpReadyCheckTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+    private long nanos;
+    private double compileRate = Double.NaN;
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return nanos;
+        }
+    };
+
+    @Test
+    public void readyWhenDisabled() {
+        assertThat(check(false, false).execute().isReady()).isTrue();
+    }
+
+    @Test
+    public void waitsForAllCriteria() {
+        metrics.register("jvm.jit.compile-time-rate", (Gauge<Double>) () -> compileRate);
+        final WarmUpReadyCheck check = check(true, false);
+        assertThat(check.execute().getMessage()).isEqualTo("context not yet refreshed");
+        check.started();
+
+        advance(Duration.ofSeconds(40));
+        compileRate = 200;
+        Result result = check.execute();
+        assertThat(result.isReady()).isFalse();
+        assertThat(result.getMessage())
+                .isEqualTo("warming up, waiting for [compile rate <= 50.0 ms/s, requests >= 10]");
+        // Stable while nothing changes, so the controller doesn't log every probe
+        compileRate = 300;
+        advance(Duration.ofSeconds(1));
+        assertThat(check.execute().getMessage()).isEqualTo(result.getMessage());
+
+        compileRate = 5;
+        metrics.timer("http-server.requests").update(Duration.ofMillis(1));
+        assertThat(check.execute().isReady()).isFalse();
+        for (int i = 0; i < 9; i++) {
+            metrics.timer("http-server.requests").update(Duration.ofMillis(1));
+        }
+        assertThat(check.execute().isReady()).isTrue();
+
+        // Stays ready
+        compileRate = 200;
+        assertThat(check.execute().isReady()).isTrue();
+    }
+
+    @Test
+    public void timeFloorAndCeiling() {
+        final WarmUpReadyCheck check = check(true, false);
+        check.started();
+        advance(Duration.ofSeconds(10));
+        assertThat(check.execute().getMessage()).contains("min-time PT30S");
+        advance(Duration.ofMinutes(5));
+        assertThat(check.execute().isReady()).isTrue();
+    }
+
+    @Test
+    public void warnOnly() {
+        final WarmUpReadyCheck check = check(true, true);
+        check.started();
+        final Result result = check.execute();
+        assertThat(result.isReady()).isFalse();
+        assertThat(result.getMessage()).startsWith("WARN: warming up, waiting for [min-time PT30S");
+    }
+
+    private WarmUpReadyCheck check(boolean enabled, boolean warnOnly) {
+        return new WarmUpReadyCheck(metrics, clock, enabled, warnOnly, Duration.ofSeconds(30), Duration.ofMinutes(5),
+                50, 10);
+    }
+
+    private void advance(Duration duration) {
+        nanos += duration.toNanos();
+    }
+}
@@ -16,6 +16,8 @@ package com.opentable.metrics.jaxrs;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
 
 import javax.inject.Named;
 import javax.ws.rs.GET;
@@ -34,6 +36,7 @@ import com.codahale.metrics.Timer;
 import com.codahale.metrics.health.HealthCheck;
 import com.codahale.metrics.health.HealthCheckRegistry;
 
+import com.opentable.metrics.health.HealthCheckCache;
 import com.opentable.metrics.http.CounterResponse;
 import com.opentable.metrics.http.GaugeResponse;
 import com.opentable.metrics.http.HealthCheckResponse;
@@ -49,11 +52,13 @@ public class MetricsHttpResource
 {
     private final MetricRegistry metrics;
     private final HealthCheckRegistry health;
+    private final Optional<HealthCheckCache> healthCache;
 
-    MetricsHttpResource(MetricRegistry metrics, HealthCheckRegistry health)
+    MetricsHttpResource(MetricRegistry metrics, HealthCheckRegistry health, Optional<HealthCheckCache> healthCache)
     {
         this.metrics = metrics;
         this.health = health;
+        this.healthCache = healthCache;
     }
 
     @GET
@@ -61,7 +66,7 @@ public class MetricsHttpResource
     {
         final List<MonitorResponse> responses = new ArrayList<>();
         metrics.getMetrics().forEach((n, m) -> responses.add(toResponse(n, m)));
-        health.runHealthChecks().forEach((n, r) -> responses.add(toResponse(n, r)));
+        runHealthChecks().forEach((n, r) -> responses.add(toResponse(n, r)));
         return responses;
     }
 
@@ -74,11 +79,28 @@ public class MetricsHttpResource
             return toResponse(metricName, metric);
         }
         if (health.getNames().contains(metricName)) {
-            return toResponse(metricName, health.runHealthCheck(metricName));
+            return toResponse(metricName, runHealthCheck(metricName));
         }
         return null;
     }
 
+    /**
+     * @return the health check results, from the cache if it's enabled
+     */
+    private SortedMap<String, HealthCheck.Result> runHealthChecks()
+    {
+        return healthCache.filter(HealthCheckCache::isEnabled)
+                .map(HealthCheckCache::runHealthChecks)
+                .orElseGet(health::runHealthChecks);
+    }
+
+    private HealthCheck.Result runHealthCheck(String name)
+    {
+        return healthCache.filter(HealthCheckCache::isEnabled)
+                .map(cache -> cache.runHealthCheck(name))
+                .orElseGet(() -> health.runHealthCheck(name));
+    }
+
     private MonitorResponse toResponse(String name, Metric metric)
     {
         if (metric instanceof Counter) {
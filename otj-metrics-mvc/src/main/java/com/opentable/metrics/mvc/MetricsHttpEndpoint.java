@@ -15,6 +15,8 @@ package com.opentable.metrics.mvc;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
@@ -32,6 +34,8 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.opentable.metrics.SlowRequestSampler;
+import com.opentable.metrics.health.HealthCheckCache;
 import com.opentable.metrics.http.CounterResponse;
 import com.opentable.metrics.http.GaugeResponse;
 import com.opentable.metrics.http.HealthCheckResponse;
@@ -46,12 +50,17 @@ public class MetricsHttpEndpoint
 {
     private final MetricRegistry metrics;
     private final HealthCheckRegistry health;
+    private final Optional<HealthCheckCache> healthCache;
+    private final Optional<SlowRequestSampler> slowRequests;
 
     @Autowired
-    MetricsHttpEndpoint(MetricRegistry metrics, HealthCheckRegistry health)
+    MetricsHttpEndpoint(MetricRegistry metrics, HealthCheckRegistry health, Optional<HealthCheckCache> healthCache,
+        Optional<SlowRequestSampler> slowRequests)
     {
         this.metrics = metrics;
         this.health = health;
+        this.healthCache = healthCache;
+        this.slowRequests = slowRequests;
     }
 
     @GetMapping
@@ -59,10 +68,19 @@ public class MetricsHttpEndpoint
     {
         final List<MonitorResponse> responses = new ArrayList<>();
         metrics.getMetrics().forEach((n, m) -> responses.add(toResponse(n, m)));
-        health.runHealthChecks().forEach((n, r) -> responses.add(toResponse(n, r)));
+        runHealthChecks().forEach((n, r) -> responses.add(toResponse(n, r)));
         return responses;
     }
 
+    /**
+     * @return the slowest requests of the last completed interval, or nothing if this isn't a Jetty server
+     */
+    @GetMapping("/slow-requests")
+    public SlowRequestSampler.Snapshot getSlowRequests()
+    {
+        return slowRequests.map(SlowRequestSampler::getLastInterval).orElse(null);
+    }
+
     @GetMapping("/{metric-name}")
     public MonitorResponse get(@PathVariable("metric-name") String metricName)
     {
@@ -71,11 +89,28 @@ public class MetricsHttpEndpoint
             return toResponse(metricName, metric);
         }
         if (health.getNames().contains(metricName)) {
-            return toResponse(metricName, health.runHealthCheck(metricName));
+            return toResponse(metricName, runHealthCheck(metricName));
         }
         return null;
     }
 
+    /**
+     * @return the health check results, from the cache if it's enabled
+     */
+    private SortedMap<String, HealthCheck.Result> runHealthChecks()
+    {
+        return healthCache.filter(HealthCheckCache::isEnabled)
+                .map(HealthCheckCache::runHealthChecks)
+                .orElseGet(health::runHealthChecks);
+    }
+
+    private HealthCheck.Result runHealthCheck(String name)
+    {
+        return healthCache.filter(HealthCheckCache::isEnabled)
+                .map(cache -> cache.runHealthCheck(name))
+                .orElseGet(() -> health.runHealthCheck(name));
+    }
+
     private MonitorResponse toResponse(String name, Metric metric)
     {
         if (metric instanceof Counter) {
@@ -15,6 +15,8 @@ package com.opentable.metrics.reactive;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.SortedMap;
 
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.Gauge;
@@ -34,6 +36,8 @@ import org.springframework.web.bind.annotation.RestController;
 
 import reactor.core.publisher.Mono;
 
+import com.opentable.metrics.SlowRequestSampler;
+import com.opentable.metrics.health.HealthCheckCache;
 import com.opentable.metrics.http.CounterResponse;
 import com.opentable.metrics.http.GaugeResponse;
 import com.opentable.metrics.http.HealthCheckResponse;
@@ -51,11 +55,16 @@ public class MetricsHttpEndpoint {
 
     private final MetricRegistry metrics;
     private final HealthCheckRegistry health;
+    private final Optional<HealthCheckCache> healthCache;
+    private final Optional<SlowRequestSampler> slowRequests;
 
     @Autowired
-    public MetricsHttpEndpoint(MetricRegistry metrics, HealthCheckRegistry health) {
+    public MetricsHttpEndpoint(MetricRegistry metrics, HealthCheckRegistry health, Optional<HealthCheckCache> healthCache,
+                               Optional<SlowRequestSampler> slowRequests) {
         this.metrics = metrics;
         this.health = health;
+        this.healthCache = healthCache;
+        this.slowRequests = slowRequests;
     }
 
     @GetMapping
@@ -63,10 +72,19 @@ public class MetricsHttpEndpoint {
     {
         final List<MonitorResponse> responses = new ArrayList<>();
         metrics.getMetrics().forEach((n, m) -> responses.add(toResponse(n, m)));
-        health.runHealthChecks().forEach((n, r) -> responses.add(toResponse(n, r)));
+        runHealthChecks().forEach((n, r) -> responses.add(toResponse(n, r)));
         return Mono.just(responses);
     }
 
+    /**
+     * @return the slowest requests of the last completed interval, or nothing if this isn't a Jetty server
+     */
+    @GetMapping("/slow-requests")
+    public Mono<SlowRequestSampler.Snapshot> getSlowRequests()
+    {
+        return Mono.justOrEmpty(slowRequests.map(SlowRequestSampler::getLastInterval));
+    }
+
     @GetMapping("/{metricName}")
     public Mono<MonitorResponse> get(@PathVariable("metricName") String metricName)
     {
@@ -75,11 +93,26 @@ public class MetricsHttpEndpoint {
             return Mono.just(toResponse(metricName, metric));
         }
         if (health.getNames().contains(metricName)) {
-            return Mono.just(toResponse(metricName, health.runHealthCheck(metricName)));
+            return Mono.just(toResponse(metricName, runHealthCheck(metricName)));
         }
         return Mono.empty();
     }
 
+    /**
+     * @return the health check results, from the cache if it's enabled
+     */
+    private SortedMap<String, HealthCheck.Result> runHealthChecks() {
+        return healthCache.filter(HealthCheckCache::isEnabled)
+                .map(HealthCheckCache::runHealthChecks)
+                .orElseGet(health::runHealthChecks);
+    }
+
+    private HealthCheck.Result runHealthCheck(String name) {
+        return healthCache.filter(HealthCheckCache::isEnabled)
+                .map(cache -> cache.runHealthCheck(name))
+                .orElseGet(() -> health.runHealthCheck(name));
+    }
+
     private MonitorResponse toResponse(String name, Metric metric)
     {
         if (metric instanceof Counter) {